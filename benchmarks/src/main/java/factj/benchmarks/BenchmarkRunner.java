@@ -0,0 +1,48 @@
+package factj.benchmarks;
+
+import java.io.File;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with 1, 4 and as many threads as there are processors, always with the
+ * GC profiler, so the results show both the throughput and the bytes allocated per built
+ * object (<code>gc.alloc.rate.norm</code>). Each thread count is written to its own JSON file
+ * in the results directory.
+ * <p>
+ * Usage: <code>java -jar target/benchmarks.jar [results directory] [benchmark regex]</code>
+ * @author Diego Aguir Selzlein
+ *
+ */
+public final class BenchmarkRunner {
+	private BenchmarkRunner() {}
+
+	public static void main(String[] args) throws RunnerException {
+		File dir = new File(args.length > 0 ? args[0] : "results");
+		String include = args.length > 1 ? args[1] : BuildBenchmark.class.getSimpleName();
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IllegalStateException("Could not create " + dir);
+
+		Set<Integer> threadCounts = new TreeSet<Integer>();
+		threadCounts.add(1);
+		threadCounts.add(4);
+		threadCounts.add(Runtime.getRuntime().availableProcessors());
+		for (int threads : threadCounts) {
+			Options options = new OptionsBuilder()
+					.include(include)
+					.threads(threads)
+					.addProfiler(GCProfiler.class)
+					.resultFormat(ResultFormatType.JSON)
+					.result(new File(dir, "threads-" + threads + ".json").getPath())
+					.build();
+			new Runner(options).run();
+		}
+	}
+}
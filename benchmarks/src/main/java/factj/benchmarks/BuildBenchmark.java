@@ -0,0 +1,135 @@
+package factj.benchmarks;
+
+import static factj.FactJHelper.association;
+import static factj.FactJHelper.fabricate;
+import static factj.FactJHelper.field;
+import static factj.FactJHelper.sequence;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import factj.FactJ;
+import factj.FactoryHandle;
+import factj.Persistence;
+import factj.benchmarks.models.Address;
+import factj.benchmarks.models.City;
+import factj.benchmarks.models.Country;
+import factj.benchmarks.models.Person;
+import factj.decorators.SequenceDecorator.Sequence;
+
+/**
+ * Measures the build and create paths of FactJ: flat objects, sequences and a chain of
+ * associations (Person -> Address -> City -> Country). Run it through
+ * {@link BenchmarkRunner} to get the results for several thread counts along with the
+ * allocation per built object.
+ * @author Diego Aguir Selzlein
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BuildBenchmark {
+	static final int LIST_SIZE = 100;
+
+	private FactoryHandle<Address> flat;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		FactJ.clear();
+		FactJ.setPersistence(new Persistence() {
+			@Override
+			public void save(Object o) {
+			}
+		});
+
+		fabricate(Address.class, "flat",
+				sequence("id"),
+				field("street", "Some street"),
+				field("number", "42"),
+				field("zipCode", "00000-000"));
+
+		fabricate(Person.class, "sequences",
+				sequence("id"),
+				field("name", "A person"),
+				sequence("email", new Sequence() {
+					@Override
+					public Object generate(int count) {
+						return "person" + count + "@company.com";
+					}
+				}));
+
+		fabricate(Country.class,
+				sequence("id"),
+				field("name", "A country"));
+		fabricate(City.class,
+				sequence("id"),
+				field("name", "A city"),
+				association("country"));
+		fabricate(Address.class,
+				sequence("id"),
+				field("street", "Some street"),
+				field("number", "42"),
+				field("zipCode", "00000-000"),
+				association("city"));
+		fabricate(Person.class,
+				sequence("id"),
+				field("name", "A person"),
+				field("client", true),
+				association("address"));
+		flat = FactJ.factory(Address.class, "flat");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		FactJ.setPersistence(null);
+		FactJ.clear();
+	}
+
+	@Benchmark
+	public Object buildFlat() {
+		return FactJ.build(Address.class, "flat");
+	}
+
+	@Benchmark
+	public Address buildFlatThroughHandle() {
+		return flat.build();
+	}
+
+	@Benchmark
+	public Object buildSequences() {
+		return FactJ.build(Person.class, "sequences");
+	}
+
+	@Benchmark
+	public Object buildAssociationChain() {
+		return FactJ.build(Person.class);
+	}
+
+	@Benchmark
+	public Object createAssociationChain() {
+		return FactJ.create(Person.class);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LIST_SIZE)
+	public List<Object> buildFlatList() {
+		return FactJ.buildList(Address.class, "flat", LIST_SIZE);
+	}
+}
@@ -0,0 +1,24 @@
+package factj.benchmarks.models;
+
+public class Address {
+	private int id;
+	private String street;
+	private String number;
+	private String zipCode;
+	private City city;
+	public int getId() {
+		return id;
+	}
+	public String getStreet() {
+		return street;
+	}
+	public String getNumber() {
+		return number;
+	}
+	public String getZipCode() {
+		return zipCode;
+	}
+	public City getCity() {
+		return city;
+	}
+}
@@ -0,0 +1,16 @@
+package factj.benchmarks.models;
+
+public class City {
+	private int id;
+	private String name;
+	private Country country;
+	public int getId() {
+		return id;
+	}
+	public String getName() {
+		return name;
+	}
+	public Country getCountry() {
+		return country;
+	}
+}
@@ -0,0 +1,12 @@
+package factj.benchmarks.models;
+
+public class Country {
+	private int id;
+	private String name;
+	public int getId() {
+		return id;
+	}
+	public String getName() {
+		return name;
+	}
+}
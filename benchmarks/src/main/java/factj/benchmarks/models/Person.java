@@ -0,0 +1,24 @@
+package factj.benchmarks.models;
+
+public class Person {
+	private int id;
+	private String name;
+	private String email;
+	private boolean client;
+	private Address address;
+	public int getId() {
+		return id;
+	}
+	public String getName() {
+		return name;
+	}
+	public String getEmail() {
+		return email;
+	}
+	public boolean isClient() {
+		return client;
+	}
+	public Address getAddress() {
+		return address;
+	}
+}
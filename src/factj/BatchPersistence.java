@@ -0,0 +1,19 @@
+package factj;
+
+import java.util.List;
+
+/**
+ * A {@link Persistence} that is able to save many objects at once. When FactJ has more than
+ * one object to save, it will call {@link #saveAll(List)} instead of calling
+ * {@link #save(Object)} for each one of them.
+ * @author Diego Aguir Selzlein
+ *
+ */
+public interface BatchPersistence extends Persistence {
+	/**
+	 * Saves all the <strong>objects</strong>. They are given in the order they must be
+	 * saved: an associated object always comes before the object that references it.
+	 * @param objects
+	 */
+	public void saveAll(List<Object> objects);
+}
@@ -0,0 +1,221 @@
+package factj;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Holds the state of a single build: the object being built, the {@link Factory} building
+ * it and the build of the object that references it, if any. A new context is created for
+ * each object built, so decorators can be shared by many threads building objects at the
+ * same time as long as they keep their per-build state in the context.
+ * @author Diego Aguir Selzlein
+ *
+ */
+public final class BuildContext {
+	private final FactJContext factJ;
+	private final BuildContext parent;
+	private final Factory factory;
+	private final int depth;
+	private final Scope scope;
+	private final List<Object> saves;
+	private final BuildListener listener;
+	private final AtomicInteger associations;
+	private Object target;
+	private List<Supplier<?>> deferred;
+	private FactorySpliterator.Reservation reservation;
+	private long index;
+	private volatile boolean finished;
+
+	/**
+	 * @param parent The context of the object that will reference the one being built or
+	 * <strong>null</strong> if it is not being built as an association.
+	 * @param factory The factory building the object.
+	 */
+	public BuildContext(BuildContext parent, Factory factory) {
+		this(parent == null ? FactJContext.current() : parent.factJ, parent, factory);
+	}
+
+	/**
+	 * @param factJ The {@link FactJContext} the object is being built in. It's only used
+	 * when there is no <strong>parent</strong>.
+	 * @param parent
+	 * @param factory
+	 */
+	BuildContext(FactJContext factJ, BuildContext parent, Factory factory) {
+		this.factJ = parent == null ? factJ : parent.factJ;
+		this.parent = parent;
+		this.factory = factory;
+		this.depth = parent == null ? 0 : parent.depth + 1;
+		this.scope = parent == null ? factJ.currentScope() : parent.scope;
+		this.saves = parent == null ? null : parent.saves;
+		this.listener = parent == null ? factJ.getBuildListener() : parent.listener;
+		this.associations = listener == null ? null : new AtomicInteger();
+		if (parent != null && parent.associations != null)
+			parent.associations.incrementAndGet();
+	}
+
+	private BuildContext(BuildContext original, List<Object> saves) {
+		this.factJ = original.factJ;
+		this.parent = original.parent;
+		this.factory = original.factory;
+		this.depth = original.depth;
+		this.scope = original.scope;
+		this.target = original.target;
+		this.reservation = original.reservation;
+		this.index = original.index;
+		this.listener = original.listener;
+		this.associations = original.associations;
+		this.saves = saves;
+	}
+
+	/**
+	 * Returns a copy of this context for builds of associations that run in another thread.
+	 * Objects created within the copy are added to <strong>saves</strong> instead of being
+	 * saved, so they can be saved later, in order, by the thread of this build.
+	 */
+	BuildContext fork(List<Object> saves) {
+		return new BuildContext(this, saves);
+	}
+
+	/**
+	 * @return Where the objects created within this context must be kept instead of being
+	 * saved or <strong>null</strong> if they must be saved right away. Once this context
+	 * {@link #isFinished()}, the objects created within it are saved right away.
+	 */
+	List<Object> getSaves() {
+		return saves;
+	}
+
+	/**
+	 * @return The listener of this build or <strong>null</strong> if there is none.
+	 */
+	BuildListener getListener() {
+		return listener;
+	}
+
+	/**
+	 * @return How many associations were built for this object so far. It's only counted
+	 * while there is a {@link BuildListener}.
+	 */
+	public int getAssociationCount() {
+		return associations == null ? 0 : associations.get();
+	}
+
+	/**
+	 * @return The {@link FactJContext} the object is being built in.
+	 */
+	public FactJContext getFactJContext() {
+		return factJ;
+	}
+
+	public BuildContext getParent() {
+		return parent;
+	}
+
+	public Factory getFactory() {
+		return factory;
+	}
+
+	/**
+	 * @return How many associations away from the object originally asked to FactJ
+	 * this build is. It's zero for that object.
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * @return The {@link Scope} that was active when the build started.
+	 */
+	public Scope getScope() {
+		return scope;
+	}
+
+	/**
+	 * @return The object being built.
+	 */
+	public Object getTarget() {
+		return target;
+	}
+
+	void setTarget(Object target) {
+		this.target = target;
+	}
+
+	/**
+	 * @return <strong>true</strong> once the object is built and its deferred values
+	 * resolved. Lazy associations resolved after that are not part of this build.
+	 */
+	boolean isFinished() {
+		return finished;
+	}
+
+	void finish() {
+		finished = true;
+	}
+
+	void reserve(FactorySpliterator.Reservation reservation, long index) {
+		this.reservation = reservation;
+		this.index = index;
+	}
+
+	/**
+	 * @param sequence
+	 * @return The value reserved for the <strong>sequence</strong> in this build, when the
+	 * object is part of a stream, or <strong>null</strong> if the sequence must give its
+	 * next value. See {@link FactJ#stream(Class, String, long, Decorator...)}.
+	 */
+	public Integer getReserved(Object sequence) {
+		if (reservation == null)
+			return null;
+		return reservation.get(sequence, index);
+	}
+
+	/**
+	 * Registers a value that is computed only when needed, like a lazy association. If the
+	 * object being built gets saved, FactJ calls {@link Supplier#get()} on it before saving
+	 * the object, so whatever it references gets saved first.
+	 * @param value
+	 */
+	public void defer(Supplier<?> value) {
+		if (deferred == null)
+			deferred = new ArrayList<Supplier<?>>(2);
+		deferred.add(value);
+	}
+
+	boolean hasDeferred() {
+		return deferred != null;
+	}
+
+	void resolveDeferred() {
+		if (deferred != null)
+			for (Supplier<?> value : deferred)
+				value.get();
+	}
+
+	/**
+	 * Builds an object to be associated to the one being built in this context.
+	 * See {@link FactJ#build(Class, String, Decorator...)}.
+	 * @param clazz
+	 * @param name
+	 * @param decorators
+	 * @return
+	 */
+	public Object build(Class<?> clazz, String name, Decorator<?> ... decorators) {
+		return factJ.build(this, clazz, name, decorators);
+	}
+
+	/**
+	 * Builds and saves an object to be associated to the one being built in this context.
+	 * See {@link FactJ#create(Class, String, Decorator...)}.
+	 * @param clazz
+	 * @param name
+	 * @param decorators
+	 * @return
+	 */
+	public Object create(Class<?> clazz, String name, Decorator<?> ... decorators) {
+		return factJ.create(this, clazz, name, decorators);
+	}
+}
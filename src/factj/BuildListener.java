@@ -0,0 +1,63 @@
+package factj;
+
+import java.util.List;
+
+/**
+ * Gets notified about the builds and saves done by FactJ, like {@link BuildMetrics} does to
+ * find out which factories take the most time. See
+ * {@link FactJ#setBuildListener(BuildListener)}.
+ * <p>
+ * Listeners are called by the threads building and saving the objects, possibly many at
+ * the same time. The build of an association starts and finishes while the build of the
+ * object referencing it is running. The times given include the time spent by the listener
+ * in the builds nested in them.
+ * @author Diego Aguir Selzlein
+ *
+ */
+public interface BuildListener {
+	/**
+	 * Called before the object of the <strong>context</strong> gets built.
+	 * @param context
+	 */
+	default void buildStarted(BuildContext context) {
+	}
+
+	/**
+	 * Called after all the decorators ran on the object of the <strong>context</strong>, or
+	 * after the build failed. Each call to {@link #buildStarted(BuildContext)} is followed by
+	 * one to this method.
+	 * @param context
+	 * @param nanos How long the build took, including the builds of its associations.
+	 */
+	default void buildFinished(BuildContext context, long nanos) {
+	}
+
+	/**
+	 * Called after <strong>decorator</strong> ran on the object of the
+	 * <strong>context</strong>. It isn't called for every decorator of the factory:
+	 * <ul>
+	 * <li>factories using {@link Factory.Strategy#COMPILED} or
+	 * {@link Factory.Strategy#PROTOTYPE} don't call it for any of their own decorators;</li>
+	 * <li>factories building their associations in parallel (see
+	 * {@link Factory#setAssociationExecutor(java.util.concurrent.Executor)}) don't call it
+	 * for any of their own decorators either;</li>
+	 * <li>when fabricating with {@link factj.decorators.Overrides}, it isn't called for the
+	 * decorators replaced by the overrides.</li>
+	 * </ul>
+	 * The decorators given when fabricating are always reported.
+	 * @param context
+	 * @param decorator
+	 * @param nanos How long the decorator took.
+	 */
+	default void decorated(BuildContext context, Decorator<?> decorator, long nanos) {
+	}
+
+	/**
+	 * Called after the {@link Persistence} saved the <strong>objects</strong>, one by one or
+	 * at once.
+	 * @param objects
+	 * @param nanos How long the persistence took.
+	 */
+	default void saved(List<Object> objects, long nanos) {
+	}
+}
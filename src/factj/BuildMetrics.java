@@ -0,0 +1,371 @@
+package factj;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import factj.decorators.FieldDecorator;
+
+/**
+ * A {@link BuildListener} that records, for each factory, how many objects it built, how
+ * long the builds took, how many associations each build had and, optionally, how many
+ * bytes each build allocated. It also records the time spent in each decorator and in the
+ * {@link Persistence}.
+ * <pre>
+ * BuildMetrics metrics = new BuildMetrics();
+ * FactJ.setBuildListener(metrics);
+ * ...
+ * System.out.println(metrics.getReport());
+ * </pre>
+ * The metrics can also be seen through JMX after calling {@link #register()}.
+ * @author Diego Aguir Selzlein
+ *
+ */
+public class BuildMetrics implements BuildListener, BuildMetricsMBean {
+	private final ConcurrentMap<List<Object>, Stats> factories =
+			new ConcurrentHashMap<List<Object>, Stats>();
+	private final Stats saves = new Stats("saves");
+	private final com.sun.management.ThreadMXBean threads;
+	private final ThreadLocal<long[]> allocations;
+
+	/**
+	 * Creates a {@link BuildMetrics} that doesn't count allocated bytes.
+	 */
+	public BuildMetrics() {
+		this(false);
+	}
+
+	/**
+	 * @param allocations <strong>true</strong> to record how many bytes each build allocates,
+	 * including its associations, through the allocation counters of the threads. It's
+	 * ignored if the JVM doesn't have them.
+	 */
+	public BuildMetrics(boolean allocations) {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (allocations && bean instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+			threads = (com.sun.management.ThreadMXBean) bean;
+			threads.setThreadAllocatedMemoryEnabled(true);
+			this.allocations = new ThreadLocal<long[]>() {
+				@Override
+				protected long[] initialValue() {
+					return new long[17];
+				}
+			};
+		} else {
+			threads = null;
+			this.allocations = null;
+		}
+	}
+
+	@Override
+	public void buildStarted(BuildContext context) {
+		if (allocations == null)
+			return;
+		long[] stack = allocations.get();
+		int size = (int) stack[0];
+		if (size + 1 == stack.length)
+			allocations.set(stack = Arrays.copyOf(stack, stack.length * 2));
+		stack[size + 1] = allocatedBytes();
+		stack[0] = size + 1;
+	}
+
+	@Override
+	public void buildFinished(BuildContext context, long nanos) {
+		Stats stats = stats(context.getFactory());
+		stats.record(nanos);
+		stats.associations.add(context.getAssociationCount());
+		max(stats.maxAssociations, context.getAssociationCount());
+		if (allocations != null) {
+			long[] stack = allocations.get();
+			int size = (int) stack[0];
+			if (size > 0) {
+				stats.allocatedBytes.add(allocatedBytes() - stack[size]);
+				stack[0] = size - 1;
+			}
+		}
+	}
+
+	@Override
+	public void decorated(BuildContext context, Decorator<?> decorator, long nanos) {
+		Map<String, LongAdder> decorators = stats(context.getFactory()).decorators;
+		String name = describe(decorator);
+		LongAdder total = decorators.get(name);
+		if (total == null) {
+			decorators.putIfAbsent(name, new LongAdder());
+			total = decorators.get(name);
+		}
+		total.add(nanos);
+	}
+
+	@Override
+	public void saved(List<Object> objects, long nanos) {
+		saves.record(nanos);
+		saves.objects.add(objects.size());
+	}
+
+	private long allocatedBytes() {
+		return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * The stats are kept by Class and name, not by {@link Factory}, so the factories
+	 * registered again, like after {@link FactJ#clear()}, share them and the old ones can be
+	 * collected.
+	 */
+	private Stats stats(Factory factory) {
+		List<Object> key = key(factory.getClazz(), factory.getName());
+		Stats stats = factories.get(key);
+		if (stats == null) {
+			Stats created = new Stats(FactJContext.describe(factory));
+			stats = factories.putIfAbsent(key, created);
+			if (stats == null)
+				stats = created;
+		}
+		return stats;
+	}
+
+	private static List<Object> key(Class<?> clazz, String name) {
+		return Arrays.<Object> asList(clazz, name == null ? "" : name);
+	}
+
+	private static String describe(Decorator<?> decorator) {
+		Class<?> c = decorator.getClass();
+		String name = c.getSimpleName().isEmpty() ? c.getName() : c.getSimpleName();
+		if (decorator instanceof FieldDecorator)
+			return name + "(" + ((FieldDecorator) decorator).getFieldName() + ")";
+		return name;
+	}
+
+	private static void max(AtomicLong max, long value) {
+		long current;
+		while (value > (current = max.get()) && !max.compareAndSet(current, value))
+			;
+	}
+
+	/**
+	 * @param clazz
+	 * @param name
+	 * @return The metrics of the factories registered for <strong>clazz</strong> and
+	 * <strong>name</strong>, in any context, or <strong>null</strong> if they haven't built
+	 * anything yet.
+	 */
+	public Stats get(Class<?> clazz, String name) {
+		return factories.get(key(clazz, name));
+	}
+
+	/**
+	 * @return The metrics of the calls to the {@link Persistence}.
+	 */
+	public Stats getSaveStats() {
+		return saves;
+	}
+
+	@Override
+	public long getBuilds() {
+		long builds = 0;
+		for (Stats s : factories.values())
+			builds += s.getCount();
+		return builds;
+	}
+
+	@Override
+	public long getSaves() {
+		return saves.objects.sum();
+	}
+
+	@Override
+	public String getReport() {
+		List<Stats> sorted = new ArrayList<Stats>(factories.values());
+		Collections.sort(sorted, new Comparator<Stats>() {
+			@Override
+			public int compare(Stats a, Stats b) {
+				return a.name.compareTo(b.name);
+			}
+		});
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("%-30s %10s %12s %10s %10s %10s %10s %8s %12s%n",
+				"factory", "builds", "total ms", "mean us", "p50 us", "p99 us", "max us",
+				"assoc", "bytes/build"));
+		for (Stats s : sorted) {
+			line(report, s);
+			for (Map.Entry<String, LongAdder> d : new TreeMap<String, LongAdder>(
+					s.decorators).entrySet())
+				report.append(String.format("  %-28s %23.3f%n", d.getKey(),
+						d.getValue().sum() / 1e6));
+		}
+		line(report, saves);
+		report.append(String.format("  %-28s %10d%n", "objects saved", getSaves()));
+		return report.toString();
+	}
+
+	private static void line(StringBuilder report, Stats s) {
+		long count = s.getCount();
+		report.append(String.format("%-30s %10d %12.3f %10.1f %10.1f %10.1f %10.1f %8.2f %12d%n",
+				s.name, count, s.getTotalNanos() / 1e6,
+				count == 0 ? 0 : s.getTotalNanos() / 1e3 / count,
+				s.getPercentile(0.5) / 1e3, s.getPercentile(0.99) / 1e3, s.getMaxNanos() / 1e3,
+				count == 0 ? 0 : (double) s.associations.sum() / count,
+				count == 0 ? 0 : s.allocatedBytes.sum() / count));
+	}
+
+	@Override
+	public void reset() {
+		factories.clear();
+		saves.clear();
+	}
+
+	/**
+	 * Registers these metrics in the platform MBean server as
+	 * <code>factj:type=BuildMetrics</code>.
+	 * @return The name of the MBean.
+	 */
+	public ObjectName register() {
+		try {
+			ObjectName name = new ObjectName("factj:type=BuildMetrics");
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+			return name;
+		} catch (JMException e) {
+			throw new IllegalStateException("Failed to register the metrics", e);
+		}
+	}
+
+	/**
+	 * The metrics of a factory, or of the saves.
+	 * @author Diego Aguir Selzlein
+	 *
+	 */
+	public static final class Stats {
+		private static final int BUCKETS = 64;
+
+		private final String name;
+		private final LongAdder count = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+		private final AtomicLong maxNanos = new AtomicLong();
+		private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+		private final LongAdder associations = new LongAdder();
+		private final AtomicLong maxAssociations = new AtomicLong();
+		private final LongAdder allocatedBytes = new LongAdder();
+		private final LongAdder objects = new LongAdder();
+		private final ConcurrentMap<String, LongAdder> decorators =
+				new ConcurrentHashMap<String, LongAdder>();
+
+		Stats(String name) {
+			this.name = name;
+		}
+
+		void record(long nanos) {
+			count.increment();
+			totalNanos.add(nanos);
+			max(maxNanos, nanos);
+			histogram.incrementAndGet(BUCKETS - 1 - Long.numberOfLeadingZeros(Math.max(nanos, 1)));
+		}
+
+		void clear() {
+			count.reset();
+			totalNanos.reset();
+			maxNanos.set(0);
+			for (int i = 0; i < BUCKETS; i++)
+				histogram.set(i, 0);
+			associations.reset();
+			maxAssociations.set(0);
+			allocatedBytes.reset();
+			objects.reset();
+			decorators.clear();
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return How many builds, or calls to the persistence, were recorded.
+		 */
+		public long getCount() {
+			return count.sum();
+		}
+
+		public long getTotalNanos() {
+			return totalNanos.sum();
+		}
+
+		public long getMaxNanos() {
+			return maxNanos.get();
+		}
+
+		/**
+		 * @return How many builds took each range of time: the position <strong>i</strong>
+		 * counts the ones that took from 2<sup>i</sup> up to 2<sup>i+1</sup> nanoseconds.
+		 */
+		public long[] getHistogram() {
+			long[] result = new long[BUCKETS];
+			for (int i = 0; i < BUCKETS; i++)
+				result[i] = histogram.get(i);
+			return result;
+		}
+
+		/**
+		 * @param percentile From 0 to 1, like 0.99.
+		 * @return The time, in nanoseconds, that the given share of the builds didn't exceed.
+		 * It's rounded up to a power of 2, so it's accurate within a factor of 2.
+		 */
+		public long getPercentile(double percentile) {
+			long[] h = getHistogram();
+			long total = 0;
+			for (long c : h)
+				total += c;
+			long wanted = (long) Math.ceil(total * percentile);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += h[i];
+				if (seen >= wanted && seen > 0)
+					return Math.min(1L << Math.min(i + 1, 62), maxNanos.get());
+			}
+			return 0;
+		}
+
+		/**
+		 * @return How many associations were built on average for each object.
+		 */
+		public double getAssociationsPerBuild() {
+			long c = getCount();
+			return c == 0 ? 0 : (double) associations.sum() / c;
+		}
+
+		public long getMaxAssociations() {
+			return maxAssociations.get();
+		}
+
+		/**
+		 * @return How many bytes the builds allocated, including their associations, if
+		 * allocations are being recorded.
+		 */
+		public long getAllocatedBytes() {
+			return allocatedBytes.sum();
+		}
+
+		/**
+		 * @return How long each decorator took in total, in nanoseconds.
+		 */
+		public Map<String, Long> getDecoratorNanos() {
+			Map<String, Long> result = new TreeMap<String, Long>();
+			for (Map.Entry<String, LongAdder> d : decorators.entrySet())
+				result.put(d.getKey(), d.getValue().sum());
+			return result;
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package factj;
+
+/**
+ * What {@link BuildMetrics} shows through JMX.
+ * @author Diego Aguir Selzlein
+ *
+ */
+public interface BuildMetricsMBean {
+	/**
+	 * @return How many objects were built, including associations.
+	 */
+	public long getBuilds();
+
+	/**
+	 * @return How many objects were saved.
+	 */
+	public long getSaves();
+
+	/**
+	 * @return The metrics of each factory as a text table. Factories registered again with the
+	 * same Class and name, like after {@link factj.FactJ#clear()}, share a line.
+	 */
+	public String getReport();
+
+	/**
+	 * Forgets everything recorded so far.
+	 */
+	public void reset();
+}
@@ -0,0 +1,368 @@
+package factj;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import factj.decorators.FieldDecorator;
+
+/**
+ * Generates, at runtime, a {@link CompiledChain} class specialized for the decorators of a
+ * {@link Factory}. Constant {@link FieldDecorator}s become direct calls to the
+ * <code>static final</code> setter of their field with a <code>static final</code> value,
+ * which the JIT compiles down to plain field stores. The other decorators are called
+ * through <code>static final</code> fields too, so they can be inlined as well.
+ * <p>
+ * The generated class is defined in this package as a hidden class, through
+ * <code>MethodHandles.Lookup.defineHiddenClass</code>, available since Java 15, so it is
+ * unloaded once its factory is gone, like after {@link FactJ#clear()}. On Java 9 to 14 it
+ * is defined through <code>MethodHandles.Lookup.defineClass</code> instead, and stays loaded
+ * as long as FactJ does. Any failure is reported as an exception, so the factory can keep
+ * using its decorators the usual way.
+ * @author Diego Aguir Selzlein
+ *
+ */
+final class ChainCompiler {
+	private ChainCompiler() {}
+
+	private static final String CHAIN = "factj/CompiledChain";
+	private static final String DECORATOR = "factj/Decorator";
+	private static final String METHOD_HANDLE = "java/lang/invoke/MethodHandle";
+	private static final String RUN_DESCRIPTOR = "(Ljava/lang/Object;Lfactj/BuildContext;)V";
+
+	/**
+	 * An empty <code>MethodHandles.Lookup.ClassOption[]</code> or <strong>null</strong> if
+	 * the running Java has no hidden classes.
+	 */
+	private static final Object HIDDEN_CLASS_OPTIONS = hiddenClassOptions();
+
+	private static final AtomicInteger ids = new AtomicInteger();
+	private static final ConcurrentMap<Integer, Object[]> pending =
+			new ConcurrentHashMap<Integer, Object[]>();
+
+	private static Object hiddenClassOptions() {
+		try {
+			return Array.newInstance(
+					Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption"), 0);
+		} catch (ClassNotFoundException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Called by the static initializer of each generated class to get its constants.
+	 * @param id
+	 * @return
+	 */
+	static Object[] take(int id) {
+		return pending.remove(id);
+	}
+
+	/**
+	 * Compiles the <strong>decorators</strong> used by <strong>factory</strong>.
+	 * @param factory
+	 * @param decorators
+	 * @return
+	 * @throws Exception If the class couldn't be generated or defined.
+	 */
+	static CompiledChain compile(Factory factory, Decorator<?>[] decorators) throws Exception {
+		List<Object> constants = new ArrayList<Object>();
+		List<String> descriptors = new ArrayList<String>();
+		List<int[]> steps = new ArrayList<int[]>();
+		for (Decorator<?> d : decorators)
+			if (d instanceof FieldDecorator && ((FieldDecorator) d).isConstant()) {
+				FieldDecorator fd = (FieldDecorator) d;
+				fd.freeze();
+				FieldAccessor accessor = FieldAccessor.forField(factory.getClazz(),
+						fd.getFieldName());
+				steps.add(new int[] { constants.size(), constants.size() + 1 });
+				constants.add(accessor.setter());
+				descriptors.add("L" + METHOD_HANDLE + ";");
+				constants.add(fd.getValue());
+				descriptors.add("Ljava/lang/Object;");
+			} else {
+				steps.add(new int[] { constants.size() });
+				constants.add(d);
+				descriptors.add("L" + DECORATOR + ";");
+			}
+
+		int id = ids.incrementAndGet();
+		String name = "factj/CompiledChain$" + factory.getClazz().getSimpleName() + "$" + id;
+		byte[] bytes = new ClassWriter(name, id, descriptors, steps).toByteArray();
+
+		pending.put(id, constants.toArray());
+		try {
+			MethodHandles.Lookup lookup = define(bytes);
+			MethodHandle constructor = lookup.findConstructor(lookup.lookupClass(),
+					MethodType.methodType(void.class));
+			return (CompiledChain) constructor.invoke();
+		} catch (Throwable e) {
+			if (e instanceof Exception)
+				throw (Exception) e;
+			throw new IllegalStateException(e);
+		} finally {
+			pending.remove(id);
+		}
+	}
+
+	/**
+	 * Defines the class as a hidden class when the running Java allows it.
+	 * @param bytes
+	 * @return A lookup whose class is the one defined.
+	 */
+	private static MethodHandles.Lookup define(byte[] bytes) throws Exception {
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		Method defineHiddenClass = HIDDEN_CLASS_OPTIONS == null ? null : MethodHandles.Lookup
+				.class.getMethod("defineHiddenClass", byte[].class, boolean.class,
+						HIDDEN_CLASS_OPTIONS.getClass());
+		if (defineHiddenClass != null)
+			return (MethodHandles.Lookup) defineHiddenClass.invoke(lookup, bytes, true,
+					HIDDEN_CLASS_OPTIONS);
+		Method defineClass = MethodHandles.Lookup.class.getMethod("defineClass", byte[].class);
+		return lookup.in((Class<?>) defineClass.invoke(lookup, (Object) bytes));
+	}
+
+	/**
+	 * Writes the class file. The generated class looks like:
+	 * <pre>
+	 * final class CompiledChain$Person$1 extends CompiledChain {
+	 *   private static final MethodHandle f0; // setter of "name"
+	 *   private static final Object f1;       // "A person"
+	 *   private static final Decorator f2;    // sequence("id")
+	 *   static {
+	 *     Object[] c = ChainCompiler.take(1);
+	 *     f0 = (MethodHandle) c[0]; f1 = c[1]; f2 = (Decorator) c[2];
+	 *   }
+	 *   void run(Object o, BuildContext context) {
+	 *     f0.invokeExact(o, f1);
+	 *     f2.decorate(o, context);
+	 *   }
+	 * }
+	 * </pre>
+	 */
+	private static final class ClassWriter {
+		private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+		private final DataOutputStream pool = new DataOutputStream(poolBytes);
+		private final Map<String, Integer> entries = new HashMap<String, Integer>();
+		private int poolCount = 1;
+
+		private final String name;
+		private final int id;
+		private final List<String> descriptors;
+		private final List<int[]> steps;
+
+		ClassWriter(String name, int id, List<String> descriptors, List<int[]> steps) {
+			this.name = name;
+			this.id = id;
+			this.descriptors = descriptors;
+			this.steps = steps;
+		}
+
+		byte[] toByteArray() throws IOException {
+			int thisClass = classRef(name);
+			int superClass = classRef(CHAIN);
+
+			ByteArrayOutputStream fieldBytes = new ByteArrayOutputStream();
+			DataOutputStream fields = new DataOutputStream(fieldBytes);
+			for (int i = 0; i < descriptors.size(); i++) {
+				fields.writeShort(0x001A); // private static final
+				fields.writeShort(utf8("f" + i));
+				fields.writeShort(utf8(descriptors.get(i)));
+				fields.writeShort(0);
+			}
+
+			ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+			DataOutputStream methods = new DataOutputStream(methodBytes);
+			writeConstructor(methods);
+			writeStaticInitializer(methods);
+			writeRun(methods);
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			DataOutputStream clazz = new DataOutputStream(out);
+			clazz.writeInt(0xCAFEBABE);
+			clazz.writeShort(0);
+			clazz.writeShort(52); // Java 8
+			clazz.writeShort(poolCount);
+			pool.flush();
+			poolBytes.writeTo(clazz);
+			clazz.writeShort(0x0030); // final super
+			clazz.writeShort(thisClass);
+			clazz.writeShort(superClass);
+			clazz.writeShort(0);
+			clazz.writeShort(descriptors.size());
+			fields.flush();
+			fieldBytes.writeTo(clazz);
+			clazz.writeShort(3);
+			methods.flush();
+			methodBytes.writeTo(clazz);
+			clazz.writeShort(0);
+			clazz.flush();
+			return out.toByteArray();
+		}
+
+		private void writeConstructor(DataOutputStream methods) throws IOException {
+			ByteArrayOutputStream code = new ByteArrayOutputStream();
+			DataOutputStream c = new DataOutputStream(code);
+			c.writeByte(0x2A); // aload_0
+			c.writeByte(0xB7); // invokespecial
+			c.writeShort(methodRef(CHAIN, "<init>", "()V", false));
+			c.writeByte(0xB1); // return
+			writeMethod(methods, 0x0000, "<init>", "()V", 1, 1, code);
+		}
+
+		private void writeStaticInitializer(DataOutputStream methods) throws IOException {
+			ByteArrayOutputStream code = new ByteArrayOutputStream();
+			DataOutputStream c = new DataOutputStream(code);
+			c.writeByte(0x13); // ldc_w
+			c.writeShort(integer(id));
+			c.writeByte(0xB8); // invokestatic
+			c.writeShort(methodRef("factj/ChainCompiler", "take", "(I)[Ljava/lang/Object;",
+					false));
+			c.writeByte(0x4B); // astore_0
+			for (int i = 0; i < descriptors.size(); i++) {
+				String descriptor = descriptors.get(i);
+				c.writeByte(0x2A); // aload_0
+				c.writeByte(0x13); // ldc_w
+				c.writeShort(integer(i));
+				c.writeByte(0x32); // aaload
+				if (!descriptor.equals("Ljava/lang/Object;")) {
+					c.writeByte(0xC0); // checkcast
+					c.writeShort(classRef(descriptor.substring(1, descriptor.length() - 1)));
+				}
+				c.writeByte(0xB3); // putstatic
+				c.writeShort(fieldRef(i));
+			}
+			c.writeByte(0xB1); // return
+			writeMethod(methods, 0x0008, "<clinit>", "()V", 2, 1, code);
+		}
+
+		private void writeRun(DataOutputStream methods) throws IOException {
+			ByteArrayOutputStream code = new ByteArrayOutputStream();
+			DataOutputStream c = new DataOutputStream(code);
+			for (int[] step : steps)
+				if (step.length == 2) {
+					c.writeByte(0xB2); // getstatic setter
+					c.writeShort(fieldRef(step[0]));
+					c.writeByte(0x2B); // aload_1
+					c.writeByte(0xB2); // getstatic value
+					c.writeShort(fieldRef(step[1]));
+					c.writeByte(0xB6); // invokevirtual
+					c.writeShort(methodRef(METHOD_HANDLE, "invokeExact",
+							"(Ljava/lang/Object;Ljava/lang/Object;)V", false));
+				} else {
+					c.writeByte(0xB2); // getstatic decorator
+					c.writeShort(fieldRef(step[0]));
+					c.writeByte(0x2B); // aload_1
+					c.writeByte(0x2C); // aload_2
+					c.writeByte(0xB9); // invokeinterface
+					c.writeShort(methodRef(DECORATOR, "decorate", RUN_DESCRIPTOR, true));
+					c.writeByte(3);
+					c.writeByte(0);
+				}
+			c.writeByte(0xB1); // return
+			writeMethod(methods, 0x0000, "run", RUN_DESCRIPTOR, 3, 3, code);
+		}
+
+		private void writeMethod(DataOutputStream methods, int access, String name,
+				String descriptor, int maxStack, int maxLocals, ByteArrayOutputStream code)
+				throws IOException {
+			methods.writeShort(access);
+			methods.writeShort(utf8(name));
+			methods.writeShort(utf8(descriptor));
+			methods.writeShort(1);
+			methods.writeShort(utf8("Code"));
+			methods.writeInt(12 + code.size());
+			methods.writeShort(maxStack);
+			methods.writeShort(maxLocals);
+			methods.writeInt(code.size());
+			code.writeTo(methods);
+			methods.writeShort(0);
+			methods.writeShort(0);
+		}
+
+		private int fieldRef(int index) throws IOException {
+			return ref(9, name, "f" + index, descriptors.get(index));
+		}
+
+		private int methodRef(String owner, String name, String descriptor, boolean itf)
+				throws IOException {
+			return ref(itf ? 11 : 10, owner, name, descriptor);
+		}
+
+		private int ref(int tag, String owner, String name, String descriptor)
+				throws IOException {
+			String key = tag + ":" + owner + "." + name + descriptor;
+			Integer index = entries.get(key);
+			if (index != null)
+				return index;
+			int ownerIndex = classRef(owner);
+			int nameAndType = nameAndType(name, descriptor);
+			pool.writeByte(tag);
+			pool.writeShort(ownerIndex);
+			pool.writeShort(nameAndType);
+			return add(key);
+		}
+
+		private int nameAndType(String name, String descriptor) throws IOException {
+			String key = "12:" + name + ":" + descriptor;
+			Integer index = entries.get(key);
+			if (index != null)
+				return index;
+			int nameIndex = utf8(name);
+			int descriptorIndex = utf8(descriptor);
+			pool.writeByte(12);
+			pool.writeShort(nameIndex);
+			pool.writeShort(descriptorIndex);
+			return add(key);
+		}
+
+		private int classRef(String internalName) throws IOException {
+			String key = "7:" + internalName;
+			Integer index = entries.get(key);
+			if (index != null)
+				return index;
+			int nameIndex = utf8(internalName);
+			pool.writeByte(7);
+			pool.writeShort(nameIndex);
+			return add(key);
+		}
+
+		private int integer(int value) throws IOException {
+			String key = "3:" + value;
+			Integer index = entries.get(key);
+			if (index != null)
+				return index;
+			pool.writeByte(3);
+			pool.writeInt(value);
+			return add(key);
+		}
+
+		private int utf8(String value) throws IOException {
+			String key = "1:" + value;
+			Integer index = entries.get(key);
+			if (index != null)
+				return index;
+			pool.writeByte(1);
+			pool.writeUTF(value);
+			return add(key);
+		}
+
+		private int add(String key) {
+			int index = poolCount++;
+			entries.put(key, index);
+			return index;
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package factj;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Saves the objects it receives in chunks, so a stream of objects can be saved without
+ * keeping all of them in memory. See {@link FactJ#sink(int)}. It may receive objects from
+ * many threads at the same time, but then they are not saved in any particular order.
+ * <p>
+ * Lazy associations of an object received right after it was built, in the same thread, are
+ * built and saved before the chunk is, as in the example below. Objects that are kept
+ * somewhere on the way, like by <code>sorted()</code>, are saved without them.
+ * <p>
+ * The last chunk is saved when the sink is closed:
+ * <pre>
+ * try (ChunkedSink sink = FactJ.sink(1000)) {
+ *     FactJ.stream(Person.class, 1000000).forEach(sink);
+ * }
+ * </pre>
+ * @author Diego Aguir Selzlein
+ *
+ */
+public final class ChunkedSink implements Consumer<Object>, AutoCloseable {
+	private final FactJContext factJ;
+	private final int chunkSize;
+	private List<Object> chunk;
+
+	ChunkedSink(FactJContext factJ, int chunkSize) {
+		if (chunkSize < 1)
+			throw new IllegalArgumentException("Chunk size must be at least 1: " + chunkSize);
+		this.factJ = factJ;
+		this.chunkSize = chunkSize;
+		this.chunk = new ArrayList<Object>(chunkSize);
+	}
+
+	@Override
+	public void accept(Object o) {
+		factJ.resolveDeferred(o);
+		List<Object> full = null;
+		synchronized (this) {
+			chunk.add(o);
+			if (chunk.size() >= chunkSize) {
+				full = chunk;
+				chunk = new ArrayList<Object>(chunkSize);
+			}
+		}
+		if (full != null)
+			factJ.saveAll(full);
+	}
+
+	/**
+	 * Saves the objects received since the last chunk was saved.
+	 */
+	public void flush() {
+		List<Object> rest;
+		synchronized (this) {
+			if (chunk.isEmpty())
+				return;
+			rest = chunk;
+			chunk = new ArrayList<Object>(chunkSize);
+		}
+		factJ.saveAll(rest);
+	}
+
+	@Override
+	public void close() {
+		flush();
+	}
+}
@@ -0,0 +1,15 @@
+package factj;
+
+/**
+ * The decorators of a {@link Factory} compiled into a single class by {@link ChainCompiler}.
+ * @author Diego Aguir Selzlein
+ *
+ */
+abstract class CompiledChain {
+	/**
+	 * Runs all the decorators of the factory on the object <strong>o</strong>, in order.
+	 * @param o
+	 * @param context
+	 */
+	abstract void run(Object o, BuildContext context);
+}
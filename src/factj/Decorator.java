@@ -8,4 +8,16 @@ package factj;
  */
 public interface Decorator<T> {
 	public void decorate(T o);
+
+	/**
+	 * Customizes the object while FactJ builds it. Decorators that need to know about the
+	 * build (like the object being built or how deep in the associations it is) should
+	 * override this method instead of keeping that state in their own fields, since the
+	 * same decorator is used by every build of a {@link Factory}, possibly at the same time.
+	 * @param o The object being built.
+	 * @param context The context of this build.
+	 */
+	public default void decorate(T o, BuildContext context) {
+		decorate(o);
+	}
 }
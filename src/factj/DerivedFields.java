@@ -0,0 +1,188 @@
+package factj;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import factj.decorators.DerivedDecorator;
+import factj.decorators.FieldDecorator;
+
+/**
+ * The {@link DerivedDecorator}s of a {@link Factory} sorted so each one runs after the
+ * derived fields it depends on. The other dependencies are read from the object only once
+ * per build, into a buffer that also keeps the derived values for the ones that follow.
+ * The sorting is done once per factory, before its first build.
+ * <p>
+ * A derived field runs where it was declared, unless one of its dependencies is set by a
+ * {@link FieldDecorator} declared after it, in which case it runs right after that
+ * decorator. Other decorators can't tell which fields they set, so they are not waited
+ * for. The derived fields that run at the same point are grouped in one
+ * {@link DerivedFields}.
+ * @author Diego Aguir Selzlein
+ *
+ */
+final class DerivedFields implements Decorator<Object> {
+	private final DerivedDecorator[] derived;
+	private final FieldAccessor[] reads;
+	private final FieldAccessor[] writes;
+	private final int[][] inputs;
+
+	private DerivedFields(DerivedDecorator[] derived, FieldAccessor[] reads,
+			FieldAccessor[] writes, int[][] inputs) {
+		this.derived = derived;
+		this.reads = reads;
+		this.writes = writes;
+		this.inputs = inputs;
+	}
+
+	/**
+	 * @param clazz The Class of the objects built.
+	 * @param decorators The decorators of a factory.
+	 * @return The <strong>decorators</strong> themselves if none of them is derived, or the
+	 * other decorators in their order with the derived ones grouped right after the last
+	 * decorator they need.
+	 * @throws IllegalStateException If the derived fields depend on each other in a cycle.
+	 */
+	static Decorator<?>[] chain(Class<?> clazz, Decorator<?>[] decorators) {
+		if (decorators == null)
+			return null;
+		List<DerivedDecorator> derived = new ArrayList<DerivedDecorator>();
+		Map<String, Integer> declared = new HashMap<String, Integer>();
+		Map<String, Integer> setters = new HashMap<String, Integer>();
+		for (int i = 0; i < decorators.length; i++)
+			if (decorators[i] instanceof DerivedDecorator) {
+				derived.add((DerivedDecorator) decorators[i]);
+				declared.put(((DerivedDecorator) decorators[i]).getFieldName(), i);
+			} else if (decorators[i] instanceof FieldDecorator)
+				setters.put(((FieldDecorator) decorators[i]).getFieldName(), i);
+		if (derived.isEmpty())
+			return decorators;
+
+		// Sorted so the derived fields come after the ones they depend on.
+		DerivedDecorator[] sorted = of(clazz, derived).derived;
+		Map<String, Integer> positions = new HashMap<String, Integer>();
+		List<List<DerivedDecorator>> groups = new ArrayList<List<DerivedDecorator>>(
+				decorators.length);
+		for (int i = 0; i < decorators.length; i++)
+			groups.add(null);
+		for (DerivedDecorator d : sorted) {
+			int position = declared.get(d.getFieldName());
+			for (String dependency : d.getDependencies()) {
+				Integer after = positions.get(dependency);
+				if (after == null)
+					after = setters.get(dependency);
+				if (after != null && after > position)
+					position = after;
+			}
+			positions.put(d.getFieldName(), position);
+			if (groups.get(position) == null)
+				groups.set(position, new ArrayList<DerivedDecorator>());
+			groups.get(position).add(d);
+		}
+
+		List<Decorator<?>> chain = new ArrayList<Decorator<?>>(decorators.length);
+		for (int i = 0; i < decorators.length; i++) {
+			if (!(decorators[i] instanceof DerivedDecorator))
+				chain.add(decorators[i]);
+			if (groups.get(i) != null)
+				chain.add(of(clazz, groups.get(i)));
+		}
+		return chain.toArray(new Decorator<?>[chain.size()]);
+	}
+
+	static DerivedFields of(Class<?> clazz, List<DerivedDecorator> derived) {
+		Map<String, DerivedDecorator> byField = new LinkedHashMap<String, DerivedDecorator>();
+		for (DerivedDecorator d : derived)
+			if (byField.put(d.getFieldName(), d) != null)
+				throw new IllegalArgumentException("Field '" + d.getFieldName() + "' of "
+						+ clazz.getName() + " is derived more than once");
+
+		List<DerivedDecorator> sorted = new ArrayList<DerivedDecorator>(derived.size());
+		Map<String, Boolean> visited = new HashMap<String, Boolean>();
+		for (DerivedDecorator d : derived)
+			visit(d, byField, visited, new ArrayList<String>(), sorted);
+
+		Map<String, Integer> slots = new HashMap<String, Integer>();
+		List<FieldAccessor> reads = new ArrayList<FieldAccessor>();
+		for (DerivedDecorator d : sorted)
+			for (String dependency : d.getDependencies())
+				if (!byField.containsKey(dependency) && !slots.containsKey(dependency)) {
+					slots.put(dependency, reads.size());
+					reads.add(FieldAccessor.forField(clazz, dependency));
+				}
+		FieldAccessor[] writes = new FieldAccessor[sorted.size()];
+		int[][] inputs = new int[sorted.size()][];
+		for (int i = 0; i < writes.length; i++) {
+			DerivedDecorator d = sorted.get(i);
+			writes[i] = FieldAccessor.forField(clazz, d.getFieldName());
+			slots.put(d.getFieldName(), reads.size() + i);
+		}
+		for (int i = 0; i < inputs.length; i++) {
+			String[] dependencies = sorted.get(i).getDependencies();
+			inputs[i] = new int[dependencies.length];
+			for (int j = 0; j < dependencies.length; j++)
+				inputs[i][j] = slots.get(dependencies[j]);
+		}
+		return new DerivedFields(sorted.toArray(new DerivedDecorator[sorted.size()]),
+				reads.toArray(new FieldAccessor[reads.size()]), writes, inputs);
+	}
+
+	/**
+	 * Adds <strong>d</strong> to <strong>sorted</strong> after the derived fields it
+	 * depends on. <strong>visited</strong> tells whether a field is done or is still being
+	 * visited, in which case there is a cycle.
+	 */
+	private static void visit(DerivedDecorator d, Map<String, DerivedDecorator> byField,
+			Map<String, Boolean> visited, List<String> path, List<DerivedDecorator> sorted) {
+		Boolean done = visited.get(d.getFieldName());
+		path.add(d.getFieldName());
+		if (done == Boolean.FALSE)
+			throw new IllegalStateException("Derived fields depend on each other in a cycle: "
+					+ String.join(" -> ", path.subList(path.indexOf(d.getFieldName()),
+							path.size())));
+		if (done == null) {
+			visited.put(d.getFieldName(), Boolean.FALSE);
+			for (String dependency : d.getDependencies()) {
+				DerivedDecorator other = byField.get(dependency);
+				if (other != null)
+					visit(other, byField, visited, path, sorted);
+			}
+			visited.put(d.getFieldName(), Boolean.TRUE);
+			sorted.add(d);
+		}
+		path.remove(path.size() - 1);
+	}
+
+	/**
+	 * @param fields
+	 * @return These derived fields but the <strong>fields</strong>, which become plain
+	 * dependencies, or <strong>null</strong> if all of them are in <strong>fields</strong>.
+	 */
+	DerivedFields without(Class<?> clazz, List<String> fields) {
+		List<DerivedDecorator> kept = new ArrayList<DerivedDecorator>(derived.length);
+		for (DerivedDecorator d : derived)
+			if (!fields.contains(d.getFieldName()))
+				kept.add(d);
+		if (kept.size() == derived.length)
+			return this;
+		return kept.isEmpty() ? null : of(clazz, kept);
+	}
+
+	@Override
+	public void decorate(Object o) {
+		Object[] buffer = new Object[reads.length + derived.length];
+		for (int i = 0; i < reads.length; i++)
+			buffer[i] = reads[i].get(o);
+		for (int i = 0; i < derived.length; i++) {
+			int[] in = inputs[i];
+			Object[] values = new Object[in.length];
+			for (int j = 0; j < in.length; j++)
+				values[j] = buffer[in[j]];
+			Object value = derived[i].derive(values);
+			writes[i].set(o, value);
+			buffer[reads.length + i] = value;
+		}
+	}
+}
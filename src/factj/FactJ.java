@@ -1,23 +1,40 @@
 package factj;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.List;
-import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 /**
  * This class manages all the factories and builds new objects using them.
+ * The factories, the persistence and the settings are kept by the {@link FactJContext}
+ * bound to the current thread or by the default one. See {@link FactJContext#current()}.
  * 
  * @author Diego Aguir Selzlein
  *
  */
 public final class FactJ {
 	private FactJ() {}
-	private static Map<Class<?>, List<Factory>> factories;
-	private static Persistence persistence;
 
-	static {
-		factories = new HashMap<Class<?>, List<Factory>>();
+	/**
+	 * What happens when an association would build an object using a factory that is
+	 * already building one of the objects that reference it, like A -> B -> A. Only chains
+	 * of associations declared by the factories count, since they would repeat forever.
+	 * Custom decorators that build objects with the same factory and lazy associations used
+	 * after their owner was built are only limited by {@link FactJ#setMaxDepth(int)}.
+	 */
+	public enum CyclePolicy {
+		/**
+		 * Throws an {@link IllegalStateException} describing the path of the cycle.
+		 * This is the default.
+		 */
+		FAIL,
+		/**
+		 * Uses the object already being built by that factory, closing the cycle.
+		 */
+		LINK
 	}
 
 	/**
@@ -25,7 +42,145 @@ public final class FactJ {
 	 * @param persistence
 	 */
 	public static void setPersistence(Persistence persistence) {
-		FactJ.persistence = persistence;
+		FactJContext.current().setPersistence(persistence);
+	}
+
+	/**
+	 * Turns the batching mode on when <strong>batchSize</strong> is greater than zero.
+	 * In this mode, the objects created are kept in memory and saved only when there are
+	 * <strong>batchSize</strong> of them or when {@link #flush()} is called. If the
+	 * {@link Persistence} is a {@link BatchPersistence}, all of them will be given to it at once.
+	 * <br />
+	 * The objects are saved in the order they were created, which means an associated object
+	 * is always saved before the object that references it.
+	 * Passing zero turns the batching mode off, saving whatever was pending.
+	 * @param batchSize How many objects are kept before saving them. Default: 0.
+	 */
+	public static void setBatchSize(int batchSize) {
+		FactJContext.current().setBatchSize(batchSize);
+	}
+
+	/**
+	 * Saves all the objects kept by the batching mode (see {@link #setBatchSize(int)}).
+	 */
+	public static void flush() {
+		FactJContext.current().flush();
+	}
+
+	/**
+	 * @param listener Gets notified about every build, decorator and save, like
+	 * {@link BuildMetrics}. <strong>null</strong> turns the notifications off. This is
+	 * the default.
+	 */
+	public static void setBuildListener(BuildListener listener) {
+		FactJContext.current().setBuildListener(listener);
+	}
+
+	/**
+	 * @param cyclePolicy What to do when associations form a cycle.
+	 * Default: {@link CyclePolicy#FAIL}.
+	 */
+	public static void setCyclePolicy(CyclePolicy cyclePolicy) {
+		FactJContext.current().setCyclePolicy(cyclePolicy);
+	}
+
+	/**
+	 * Limits how deep associations may go. The object asked to FactJ is at depth zero, its
+	 * associations at depth one and so on. Building an association deeper than that throws
+	 * an {@link IllegalStateException}.
+	 * @param maxDepth Default: no limit.
+	 */
+	public static void setMaxDepth(int maxDepth) {
+		FactJContext.current().setMaxDepth(maxDepth);
+	}
+
+	/**
+	 * Runs the <strong>block</strong> within a new {@link Scope}. Associations that share
+	 * their objects (see {@link factj.decorators.AssociationDecorator#reuse()} and
+	 * {@link factj.decorators.AssociationDecorator#pool(int)}) will share them only with the
+	 * builds started in this block, in this thread. When the block ends, the scope is
+	 * discarded.<br />
+	 * Outside of any block, the objects are shared until {@link #clear()} is called.
+	 * @param block
+	 */
+	public static void scope(Runnable block) {
+		FactJContext.current().scope(block);
+	}
+
+	/**
+	 * Same as {@link #scope(Runnable)}, but returns what the <strong>block</strong> returns.
+	 * @param block
+	 * @return
+	 */
+	public static <T> T scope(Supplier<T> block) {
+		return FactJContext.current().scope(block);
+	}
+
+	/**
+	 * @return The {@link Scope} of the current thread: the one of the innermost
+	 * {@link #scope(Runnable)} block running or the default one.
+	 */
+	public static Scope currentScope() {
+		return FactJContext.current().currentScope();
+	}
+
+	/**
+	 * Gets back the objects kept in the snapshot <strong>file</strong>, or runs the
+	 * <strong>session</strong> and keeps the objects it fabricates in that file if there is
+	 * no snapshot there yet or it was taken with other factories. When restored, the
+	 * sequences continue from where they were and the objects created by the session are
+	 * saved again, all at once. Register the factories before calling this method.
+	 * See {@link Snapshot}.
+	 * @param file
+	 * @param session Fabricates the objects, like a set up of integration tests.
+	 * @return The snapshot restored or taken.
+	 * @throws UncheckedIOException If the file can't be read or written.
+	 * @throws IllegalStateException If a registered factory has a custom decorator that is
+	 * not {@link Snapshot.Keyed}.
+	 */
+	public static Snapshot snapshot(Path file, Runnable session) {
+		return FactJContext.current().snapshot(file, session);
+	}
+
+	/**
+	 * Registers the factories of every {@link FactoryProvider} listed in
+	 * <code>META-INF/services/factj.FactoryProvider</code> in the classpath and warms them
+	 * up. See {@link #discover(ClassLoader, boolean)}.
+	 * @return How many providers were found.
+	 */
+	public static int discover() {
+		return FactJContext.current().discover();
+	}
+
+	/**
+	 * Registers the factories of every {@link FactoryProvider} that the
+	 * {@link ServiceLoader} finds through <strong>loader</strong>, then calls
+	 * {@link Factory#warmUp()} on every registered factory, so their first builds don't have
+	 * to resolve constructors, fields or generated classes. Providers already discovered are
+	 * skipped until {@link #clear()} is called.
+	 * @param loader Where to look for the providers.
+	 * @param parallel <strong>true</strong> to call the providers and warm the factories
+	 * up in many threads.
+	 * @return How many providers were found.
+	 */
+	public static int discover(ClassLoader loader, boolean parallel) {
+		return FactJContext.current().discover(loader, parallel);
+	}
+
+	/**
+	 * Calls {@link Factory#warmUp()} on every registered factory.
+	 * @param parallel <strong>true</strong> to warm the factories up in many threads.
+	 */
+	public static void warmUp(boolean parallel) {
+		FactJContext.current().warmUp(parallel);
+	}
+
+	/**
+	 * @param autoDiscovery <strong>true</strong> to call {@link #discover()} the first time a
+	 * factory is not found, after each {@link #clear()}. Default: <strong>false</strong>.
+	 */
+	public static void setAutoDiscovery(boolean autoDiscovery) {
+		FactJContext.current().setAutoDiscovery(autoDiscovery);
 	}
 
 	/**
@@ -33,14 +188,43 @@ public final class FactJ {
 	 * this method directly. Take a look at
 	 * {@link FactJHelper#fabricate(Class, Decorator...)}.
 	 * 
+	 * If there is already a factory with the same {@link Factory#clazz} and
+	 * {@link Factory#name}, the one registered first will keep being used.
+	 * It is safe to register factories from several threads at the same time.
+	 * If the factory has a {@link factj.decorators.ParentDecorator}, it is replaced by the
+	 * decorators of the parent, now or, if the parent is not registered yet, at the first
+	 * build of the factory.
+	 * 
 	 * @param factory The factory to be registered.
+	 * @return The <strong>factory</strong>.
+	 */
+	public static Factory registerFactory(Factory factory) {
+		return FactJContext.current().registerFactory(factory);
+	}
+
+	/**
+	 * Returns a {@link FactoryHandle} for the registered factory that has the
+	 * {@link Factory#clazz} matching the <strong>clazz</strong> parameter and an empty
+	 * {@link Factory#name}. See {@link #factory(Class, String)}.
+	 * @param clazz Class of the objects to be built.
+	 * @return The handle or <strong>null</strong> if the factory was not found.
+	 */
+	public static <T> FactoryHandle<T> factory(Class<T> clazz) {
+		return factory(clazz, "");
+	}
+
+	/**
+	 * Returns a {@link FactoryHandle} for the registered factory that has the
+	 * {@link Factory#clazz} matching the <strong>clazz</strong> parameter and a
+	 * {@link Factory#name} matching the <strong>name</strong> parameter. The handle builds
+	 * objects of type <strong>T</strong> without looking the factory up again, so keep it
+	 * when building many objects.
+	 * @param clazz Class of the objects to be built.
+	 * @param name The name of the factory.
+	 * @return The handle or <strong>null</strong> if the factory was not found.
 	 */
-	public static void registerFactory(Factory factory) {
-		List<Factory> fs = factories.get(factory.getClazz());
-		if (fs == null)
-			fs = new ArrayList<Factory>();
-		fs.add(factory);
-		factories.put(factory.getClazz(), fs);
+	public static <T> FactoryHandle<T> factory(Class<T> clazz, String name) {
+		return FactJContext.current().factory(clazz, name);
 	}
 
 	/**
@@ -57,13 +241,13 @@ public final class FactJ {
 	}
 
 	/**
-	 * Builds an object through {@link #build(Class)} and saves it if {@link #persistence}
+	 * Builds an object through {@link #build(Class)} and saves it if the {@link Persistence}
 	 * is not <strong>null</strong>.
 	 * @param clazz
 	 * @return
 	 */
 	public static Object create(Class<?> clazz) {
-		return save(build(clazz));
+		return create(clazz, "");
 	}
 
 	/**
@@ -84,14 +268,14 @@ public final class FactJ {
 
 	/**
 	 * Builds an object through {@link #build(Class, Decorator...)} and saves
-	 * it if {@link #persistence} is not <strong>null</strong>. The object will
+	 * it if the {@link Persistence} is not <strong>null</strong>. The object will
 	 * be saved after customizing it using the <strong>decorators</strong>.
 	 * @param clazz
 	 * @param decorators Used to customize the object after it is built.
 	 * @return
 	 */
 	public static Object create(Class<?> clazz, Decorator<?> ... decorators) {
-		return save(build(clazz, decorators));
+		return create(clazz, "", decorators);
 	}
 
 	/**
@@ -111,13 +295,13 @@ public final class FactJ {
 	}
 
 	/**
-	 * Builds an object through {@link #build(Class, String)} and saves it if {@link #persistence}
+	 * Builds an object through {@link #build(Class, String)} and saves it if the {@link Persistence}
 	 * is not <strong>null</strong>.
 	 * @param clazz
 	 * @return
 	 */
 	public static Object create(Class<?> clazz, String name) {
-		return save(build(clazz, name));
+		return create(clazz, name, (Decorator[]) null);
 	}
 
 	/**
@@ -135,45 +319,148 @@ public final class FactJ {
 	 * @return The object built by the factory or <strong>null</strong> if the factory
 	 * was not found.
 	 */
-	@SuppressWarnings({ "unchecked", "rawtypes" })
 	public static Object build(Class<?> clazz, String name, Decorator<?> ... decorators) {
-		List<Factory> fs = factories.get(clazz);
-		if (name == null)
-			name = "";
-		Object result = null;
-		if (fs != null)
-			for (Factory f : fs)
-				if (f.getName().equals(name)) {
-					result = f.fabricate();
-					if (decorators != null)
-						for (Decorator d : decorators)
-							d.decorate(result);
-					break;
-				}
-		return result;
+		return FactJContext.current().build(clazz, name, decorators);
 	}
 
 	/**
 	 * Builds an object through {@link #build(Class, String, Decorator...)} and saves it
-	 * if {@link #persistence} is not <strong>null</strong>. The object will
+	 * if the {@link Persistence} is not <strong>null</strong>. The object will
 	 * be saved after customizing it using the <strong>decorators</strong>.
 	 * @param clazz
 	 * @param decorators Used to customize the object after it is built.
 	 * @return
 	 */
 	public static Object create(Class<?> clazz, String name, Decorator<?> ... decorators) {
-		return save(build(clazz, name, decorators));
+		return FactJContext.current().create(clazz, name, decorators);
 	}
 
-	private static Object save(Object o) {
-		if (persistence != null)
-			persistence.save(o);
-		return o;
+	/**
+	 * Builds <strong>count</strong> objects using the registered factory that has the
+	 * {@link Factory#clazz} matching the <strong>clazz</strong> parameter and an empty
+	 * {@link Factory#name}. See {@link #buildList(Class, String, int, Decorator...)}.
+	 * @param clazz Class of the objects to be built.
+	 * @param count How many objects must be built.
+	 * @param decorators Used to customize each object after it is built.
+	 * @return The objects built by the factory or <strong>null</strong> if the factory
+	 * was not found.
+	 */
+	public static List<Object> buildList(Class<?> clazz, int count, Decorator<?> ... decorators) {
+		return buildList(clazz, "", count, decorators);
 	}
+
+	/**
+	 * Builds a list through {@link #buildList(Class, int, Decorator...)} and saves it if
+	 * the {@link Persistence} is not <strong>null</strong>.
+	 * @param clazz
+	 * @param count
+	 * @param decorators Used to customize each object after it is built.
+	 * @return
+	 */
+	public static List<Object> createList(Class<?> clazz, int count, Decorator<?> ... decorators) {
+		return createList(clazz, "", count, decorators);
+	}
+
+	/**
+	 * Builds <strong>count</strong> objects the same way {@link #build(Class, String, Decorator...)}
+	 * does, one after the other, but looking the factory up only once. Sequences will give
+	 * the objects the same values they would get if they were built one by one.
+	 * @param clazz Class of the objects to be built.
+	 * @param name The name of the factory.
+	 * @param count How many objects must be built.
+	 * @param decorators Used to customize each object after it is built.
+	 * @return The objects built by the factory or <strong>null</strong> if the factory
+	 * was not found.
+	 */
+	public static List<Object> buildList(Class<?> clazz, String name, int count,
+			Decorator<?> ... decorators) {
+		return FactJContext.current().buildList(clazz, name, count, decorators);
+	}
+
+	/**
+	 * Returns a stream of <strong>count</strong> objects built using the registered factory
+	 * that has the {@link Factory#clazz} matching the <strong>clazz</strong> parameter and an
+	 * empty {@link Factory#name}. See {@link #stream(Class, String, long, Decorator...)}.
+	 * @param clazz Class of the objects to be built.
+	 * @param count How many objects the stream has.
+	 * @param decorators Used to customize each object after it is built.
+	 * @return The stream or <strong>null</strong> if the factory was not found.
+	 */
+	public static <T> Stream<T> stream(Class<T> clazz, long count, Decorator<?> ... decorators) {
+		return stream(clazz, "", count, decorators);
+	}
+
+	/**
+	 * Returns a stream of <strong>count</strong> objects that are built only when consumed,
+	 * so they don't need to fit in memory at once. The objects are built, not saved; use
+	 * {@link #sink(int)} to save them.
+	 * <p>
+	 * The values of the sequences of the factory and of the <strong>decorators</strong> are
+	 * reserved in chunks as the stream is consumed, in the order of the stream. Each object
+	 * gets greater values than the ones before it, even in parallel streams, and a
+	 * short-circuited stream only wastes the rest of its last chunks. The sequences of
+	 * associated factories are not reserved, so in parallel streams they give their values
+	 * in the order the objects happen to be built.
+	 * @param clazz Class of the objects to be built.
+	 * @param name The name of the factory.
+	 * @param count How many objects the stream has.
+	 * @param decorators Used to customize each object after it is built.
+	 * @return The stream or <strong>null</strong> if the factory was not found.
+	 */
+	public static <T> Stream<T> stream(Class<T> clazz, String name, long count,
+			Decorator<?> ... decorators) {
+		return FactJContext.current().stream(clazz, name, count, decorators);
+	}
+
+	/**
+	 * Returns an endless stream of objects built by the factory that has the
+	 * {@link Factory#clazz} matching the <strong>clazz</strong> parameter and the given
+	 * <strong>name</strong>, like <code>FactJ.stream(Person.class, "clients").limit(10)</code>.
+	 * The objects are built only when consumed. Sequences give their values as the objects
+	 * get built, so use {@link #stream(Class, String, long, Decorator...)} if the stream must
+	 * be split among many threads and the values must follow the order of the objects.
+	 * @param clazz Class of the objects to be built.
+	 * @param name The name of the factory.
+	 * @param decorators Used to customize each object after it is built.
+	 * @return The stream or <strong>null</strong> if the factory was not found.
+	 */
+	public static <T> Stream<T> stream(Class<T> clazz, String name,
+			Decorator<?> ... decorators) {
+		return FactJContext.current().stream(clazz, name, decorators);
+	}
+
+	/**
+	 * Returns a consumer that saves the objects it receives in chunks of
+	 * <strong>chunkSize</strong>, like <code>stream.forEach(sink)</code>. The objects that
+	 * don't fill a chunk are saved when the sink is closed.
+	 * @param chunkSize How many objects are handed to the {@link Persistence} at once.
+	 * @return
+	 */
+	public static ChunkedSink sink(int chunkSize) {
+		return FactJContext.current().sink(chunkSize);
+	}
+
+	/**
+	 * Builds a list through {@link #buildList(Class, String, int, Decorator...)} and saves it
+	 * if the {@link Persistence} is not <strong>null</strong>. The objects are handed to the
+	 * persistence only after all of them are built.
+	 * @param clazz
+	 * @param name
+	 * @param count
+	 * @param decorators Used to customize each object after it is built.
+	 * @return
+	 */
+	public static List<Object> createList(Class<?> clazz, String name, int count,
+			Decorator<?> ... decorators) {
+		return FactJContext.current().createList(clazz, name, count, decorators);
+	}
+
 	/**
-	 * Removes all the registered factories.
+	 * Removes all the registered factories and the associated objects shared outside of
+	 * a {@link #scope(Runnable)}. Objects kept by the batching mode are discarded without
+	 * being saved, and the batching mode is turned off.
 	 */
 	public static void clear() {
-		factories.clear();
+		FactJContext.current().clear();
 	}
 }
@@ -0,0 +1,852 @@
+package factj;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import factj.FactJ.CyclePolicy;
+import factj.decorators.Overrides;
+import factj.decorators.SequenceDecorator;
+
+/**
+ * Holds everything {@link FactJ} works with: the registered factories, the
+ * {@link Persistence}, the batch of objects waiting to be saved, the values of the sequences,
+ * the {@link Scope}s and the settings. The static methods of {@link FactJ} use the context
+ * bound to the current thread (see {@link #run(Runnable)}) or the default one.
+ * <p>
+ * Contexts let tests run at the same time without seeing each other's objects:
+ * <pre>
+ * FactJContext context = new FactJContext(FactJContext.getDefault());
+ * context.run(new Runnable() {
+ *     public void run() {
+ *         FactJ.create(Person.class);
+ *     }
+ * });
+ * </pre>
+ * A context created from a parent sees the factories registered in the parent without
+ * copying them. Factories registered in the context itself are only seen by it and take the
+ * place of the ones of the parent with the same Class and name. Other than that, a new
+ * context starts with the settings of its parent and with its own sequences, starting from
+ * their initial values. Only the default context changes the values kept by the
+ * {@link SequenceDecorator}s themselves.
+ * @author Diego Aguir Selzlein
+ *
+ */
+public final class FactJContext {
+	private static final FactJContext defaultContext = new FactJContext(null, false);
+	private static final ThreadLocal<FactJContext> bound = new ThreadLocal<FactJContext>();
+
+	private final FactoryRegistry factories;
+	private final ConcurrentMap<SequenceDecorator, Counter> sequences;
+	private volatile Persistence persistence;
+	private volatile int batchSize;
+	private final List<Object> batch = new ArrayList<Object>();
+	private final Object writing = new Object();
+	private volatile CyclePolicy cyclePolicy = CyclePolicy.FAIL;
+	private volatile int maxDepth = Integer.MAX_VALUE;
+	private volatile Scope defaultScope = new Scope();
+	private final ThreadLocal<Scope> scopes = new ThreadLocal<Scope>();
+	private final ThreadLocal<BuildContext> unsaved = new ThreadLocal<BuildContext>();
+	private volatile Snapshot recording;
+	private volatile BuildListener listener;
+	private final Set<Class<?>> discovered = ConcurrentHashMap.newKeySet();
+	private volatile boolean autoDiscovery;
+	private volatile boolean autoDiscovered;
+
+	/**
+	 * Creates an empty context, with no factories and the default settings.
+	 */
+	public FactJContext() {
+		this(null, true);
+	}
+
+	/**
+	 * Creates a context that sees the factories of the <strong>parent</strong> and starts
+	 * with its settings.
+	 * @param parent
+	 */
+	public FactJContext(FactJContext parent) {
+		this(parent, true);
+	}
+
+	private FactJContext(FactJContext parent, boolean ownSequences) {
+		this.factories = new FactoryRegistry(parent == null ? null : parent.factories);
+		this.sequences = ownSequences
+				? new ConcurrentHashMap<SequenceDecorator, Counter>() : null;
+		if (parent != null) {
+			persistence = parent.persistence;
+			batchSize = parent.batchSize;
+			cyclePolicy = parent.cyclePolicy;
+			maxDepth = parent.maxDepth;
+			listener = parent.listener;
+			autoDiscovery = parent.autoDiscovery;
+		}
+	}
+
+	/**
+	 * @return The context used by threads that have no context bound to them.
+	 */
+	public static FactJContext getDefault() {
+		return defaultContext;
+	}
+
+	/**
+	 * @return The context bound to the current thread or the default one.
+	 */
+	public static FactJContext current() {
+		FactJContext c = bound.get();
+		return c == null ? defaultContext : c;
+	}
+
+	/**
+	 * Runs the <strong>block</strong> with this context bound to the current thread, so the
+	 * static methods of {@link FactJ} use it.
+	 * @param block
+	 */
+	public void run(Runnable block) {
+		FactJContext previous = bound.get();
+		bound.set(this);
+		try {
+			block.run();
+		} finally {
+			unbind(previous);
+		}
+	}
+
+	/**
+	 * Same as {@link #run(Runnable)}, but returns what the <strong>block</strong> returns.
+	 * @param block
+	 * @return
+	 */
+	public <T> T call(Supplier<T> block) {
+		FactJContext previous = bound.get();
+		bound.set(this);
+		try {
+			return block.get();
+		} finally {
+			unbind(previous);
+		}
+	}
+
+	private static void unbind(FactJContext previous) {
+		if (previous == null)
+			bound.remove();
+		else
+			bound.set(previous);
+	}
+
+	/**
+	 * See {@link FactJ#setPersistence(Persistence)}.
+	 * @param persistence
+	 */
+	public void setPersistence(Persistence persistence) {
+		this.persistence = persistence;
+	}
+
+	public Persistence getPersistence() {
+		return persistence;
+	}
+
+	/**
+	 * See {@link FactJ#setBatchSize(int)}.
+	 * @param batchSize
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 0)
+			throw new IllegalArgumentException("Batch size can't be negative: " + batchSize);
+		this.batchSize = batchSize;
+		if (batchSize == 0)
+			flush();
+	}
+
+	/**
+	 * See {@link FactJ#flush()}.
+	 */
+	public void flush() {
+		// Batches are written one at a time, in the order they were taken, so associated
+		// objects still come first. Objects can be added to the next batch meanwhile.
+		synchronized (writing) {
+			List<Object> objects;
+			synchronized (batch) {
+				if (batch.isEmpty())
+					return;
+				objects = new ArrayList<Object>(batch);
+				batch.clear();
+			}
+			write(objects);
+		}
+	}
+
+	/**
+	 * See {@link FactJ#setBuildListener(BuildListener)}.
+	 * @param listener
+	 */
+	public void setBuildListener(BuildListener listener) {
+		this.listener = listener;
+	}
+
+	BuildListener getBuildListener() {
+		return listener;
+	}
+
+	/**
+	 * See {@link FactJ#setCyclePolicy(CyclePolicy)}.
+	 * @param cyclePolicy
+	 */
+	public void setCyclePolicy(CyclePolicy cyclePolicy) {
+		this.cyclePolicy = cyclePolicy == null ? CyclePolicy.FAIL : cyclePolicy;
+	}
+
+	/**
+	 * See {@link FactJ#setMaxDepth(int)}.
+	 * @param maxDepth
+	 */
+	public void setMaxDepth(int maxDepth) {
+		if (maxDepth < 0)
+			throw new IllegalArgumentException("Max depth can't be negative: " + maxDepth);
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * See {@link FactJ#scope(Runnable)}.
+	 * @param block
+	 */
+	public void scope(Runnable block) {
+		Scope previous = scopes.get();
+		scopes.set(new Scope());
+		try {
+			block.run();
+		} finally {
+			restore(previous);
+		}
+	}
+
+	/**
+	 * See {@link FactJ#scope(Supplier)}.
+	 * @param block
+	 * @return
+	 */
+	public <T> T scope(Supplier<T> block) {
+		Scope previous = scopes.get();
+		scopes.set(new Scope());
+		try {
+			return block.get();
+		} finally {
+			restore(previous);
+		}
+	}
+
+	private void restore(Scope previous) {
+		if (previous == null)
+			scopes.remove();
+		else
+			scopes.set(previous);
+	}
+
+	/**
+	 * See {@link FactJ#currentScope()}.
+	 * @return
+	 */
+	public Scope currentScope() {
+		Scope s = scopes.get();
+		return s == null ? defaultScope : s;
+	}
+
+	/**
+	 * See {@link FactJ#snapshot(Path, Runnable)}.
+	 * @param file
+	 * @param session
+	 * @return
+	 */
+	public Snapshot snapshot(final Path file, final Runnable session) {
+		return call(new Supplier<Snapshot>() {
+			@Override
+			public Snapshot get() {
+				try {
+					Snapshot snapshot = Snapshot.read(file);
+					if (snapshot != null) {
+						snapshot.restore();
+						return snapshot;
+					}
+					snapshot = Snapshot.record(session);
+					snapshot.write(file);
+					return snapshot;
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		});
+	}
+
+	synchronized void startRecording(Snapshot snapshot) {
+		if (recording != null)
+			throw new IllegalStateException("Another session is already being recorded");
+		recording = snapshot;
+	}
+
+	synchronized void stopRecording(Snapshot snapshot) {
+		if (recording == snapshot)
+			recording = null;
+	}
+
+	/**
+	 * See {@link FactJ#discover()}.
+	 * @return
+	 */
+	public int discover() {
+		ClassLoader loader = Thread.currentThread().getContextClassLoader();
+		return discover(loader == null ? FactJ.class.getClassLoader() : loader, false);
+	}
+
+	/**
+	 * See {@link FactJ#discover(ClassLoader, boolean)}.
+	 * @param loader
+	 * @param parallel
+	 * @return
+	 */
+	public int discover(ClassLoader loader, boolean parallel) {
+		List<FactoryProvider> providers = new ArrayList<FactoryProvider>();
+		for (FactoryProvider p : ServiceLoader.load(FactoryProvider.class, loader))
+			providers.add(p);
+		Stream<FactoryProvider> found = parallel ? providers.parallelStream()
+				: providers.stream();
+		found.forEach(new Consumer<FactoryProvider>() {
+			@Override
+			public void accept(final FactoryProvider p) {
+				if (!discovered.add(p.getClass()))
+					return;
+				boolean registered = false;
+				try {
+					run(new Runnable() {
+						@Override
+						public void run() {
+							p.register();
+						}
+					});
+					registered = true;
+				} finally {
+					if (!registered)
+						discovered.remove(p.getClass());
+				}
+			}
+		});
+		warmUp(parallel);
+		return providers.size();
+	}
+
+	/**
+	 * See {@link FactJ#warmUp(boolean)}.
+	 * @param parallel
+	 */
+	public void warmUp(boolean parallel) {
+		List<Factory> all = factories.all();
+		(parallel ? all.parallelStream() : all.stream()).forEach(new Consumer<Factory>() {
+			@Override
+			public void accept(Factory f) {
+				f.warmUp(FactJContext.this);
+			}
+		});
+	}
+
+	/**
+	 * See {@link FactJ#setAutoDiscovery(boolean)}.
+	 * @param autoDiscovery
+	 */
+	public void setAutoDiscovery(boolean autoDiscovery) {
+		this.autoDiscovery = autoDiscovery;
+	}
+
+	/**
+	 * See {@link FactJ#registerFactory(Factory)}. The factory is only seen by this context
+	 * and the ones created from it afterwards. Its parent, if any, is looked up in this
+	 * context.
+	 * @param factory
+	 * @return
+	 */
+	public Factory registerFactory(Factory factory) {
+		factory.inherit(this);
+		factories.register(factory);
+		return factory;
+	}
+
+	/**
+	 * See {@link FactJ#build(Class, String, Decorator...)}.
+	 * @param clazz
+	 * @param name
+	 * @param decorators
+	 * @return
+	 */
+	public Object build(Class<?> clazz, String name, Decorator<?> ... decorators) {
+		return build(null, clazz, name, decorators);
+	}
+
+	Object build(BuildContext parent, Class<?> clazz, String name, Decorator<?>[] decorators) {
+		Factory f = lookup(clazz, name);
+		if (f == null)
+			return null;
+		if (parent != null) {
+			BuildContext cycle = checkPath(parent, f);
+			if (cycle != null)
+				return cycle.getTarget();
+		}
+		return fabricate(f, parent, decorators, false);
+	}
+
+	/**
+	 * @param clazz
+	 * @param name
+	 * @return The factory registered for <strong>clazz</strong> and <strong>name</strong>
+	 * or <strong>null</strong>.
+	 */
+	Factory getFactory(Class<?> clazz, String name) {
+		return factories.get(clazz, name);
+	}
+
+	/**
+	 * Looks the factory up, discovering the factories first if it is not found and
+	 * {@link #setAutoDiscovery(boolean)} is on.
+	 */
+	private Factory lookup(Class<?> clazz, String name) {
+		Factory f = factories.get(clazz, name);
+		if (f == null && autoDiscovery && !autoDiscovered) {
+			autoDiscovered = true;
+			discover();
+			f = factories.get(clazz, name);
+		}
+		return f;
+	}
+
+	List<Factory> getFactories() {
+		return factories.all();
+	}
+
+	/**
+	 * See {@link FactoryRegistry#version()}.
+	 */
+	int getRegistryVersion() {
+		return factories.version();
+	}
+
+	/**
+	 * Checks the depth and looks for the <strong>factory</strong> in the unfinished builds
+	 * that led to <strong>parent</strong>. A factory found there closes a cycle only if each
+	 * build on the way was started by an association of the factory before it, since those
+	 * would repeat forever. Builds started by custom decorators may stop by themselves, so
+	 * only the depth limit applies to them. Lazy associations resolved after their owner was
+	 * built don't continue its path either.
+	 * @return The build that closes a cycle if it must be linked or <strong>null</strong>.
+	 */
+	private BuildContext checkPath(BuildContext parent, Factory factory) {
+		if (parent.getDepth() >= maxDepth)
+			throw new IllegalStateException("Associations are deeper than " + maxDepth + ": "
+					+ path(parent, factory));
+		Factory next = factory;
+		for (BuildContext c = parent; c != null && !c.isFinished(); c = c.getParent()) {
+			if (!c.getFactory().associates(next))
+				return null;
+			if (c.getFactory() == factory) {
+				if (cyclePolicy == CyclePolicy.LINK)
+					return c;
+				throw new IllegalStateException("Associations form a cycle: "
+						+ path(parent, factory));
+			}
+			next = c.getFactory();
+		}
+		return null;
+	}
+
+	private static String path(BuildContext parent, Factory factory) {
+		StringBuilder path = new StringBuilder(describe(factory));
+		for (BuildContext c = parent; c != null; c = c.getParent())
+			path.insert(0, " -> ").insert(0, describe(c.getFactory()));
+		return path.toString();
+	}
+
+	static String describe(Factory f) {
+		String name = f.getClazz().getSimpleName();
+		if (f.getName() == null || f.getName().isEmpty())
+			return name;
+		return name + "(\"" + f.getName() + "\")";
+	}
+
+	Object fabricate(Factory f, BuildContext parent, Decorator<?>[] decorators,
+			boolean persist) {
+		return fabricate(new BuildContext(this, parent, f), decorators, null, persist);
+	}
+
+	Object fabricate(BuildContext context, Decorator<?>[] decorators, boolean persist) {
+		return fabricate(context, decorators, null, persist);
+	}
+
+	/**
+	 * Fabricates the object of the <strong>context</strong> and customizes it using the
+	 * <strong>decorators</strong>, then the <strong>decorator</strong>. Both may be
+	 * <strong>null</strong>. The listener, if any, is told about the build even if it fails.
+	 */
+	Object fabricate(BuildContext context, Decorator<?>[] decorators, Decorator<?> decorator,
+			boolean persist) {
+		BuildListener l = context.getListener();
+		if (l == null)
+			return fabricateObject(context, decorators, decorator, persist, null);
+		l.buildStarted(context);
+		long start = System.nanoTime();
+		try {
+			return fabricateObject(context, decorators, decorator, persist, l);
+		} finally {
+			l.buildFinished(context, System.nanoTime() - start);
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private Object fabricateObject(BuildContext context, Decorator<?>[] decorators,
+			Decorator decorator, boolean persist, BuildListener l) {
+		Overrides overrides = overridesIn(decorators, decorator);
+		Object result = overrides == null ? context.getFactory().fabricate(context)
+				: context.getFactory().fabricate(context, overrides);
+		if (decorators != null)
+			for (Decorator d : decorators)
+				if (d == overrides)
+					continue;
+				else if (l == null)
+					d.decorate(result, context);
+				else {
+					long decoratorStart = System.nanoTime();
+					d.decorate(result, context);
+					l.decorated(context, d, System.nanoTime() - decoratorStart);
+				}
+		if (decorator != null && decorator != overrides)
+			if (l == null)
+				decorator.decorate(result, context);
+			else {
+				long decoratorStart = System.nanoTime();
+				decorator.decorate(result, context);
+				l.decorated(context, decorator, System.nanoTime() - decoratorStart);
+			}
+		if (persist && persistence != null)
+			context.resolveDeferred();
+		else if (context.getParent() == null && context.hasDeferred())
+			unsaved.set(context);
+		context.finish();
+		Snapshot r = recording;
+		if (r != null)
+			r.built(result, context.getFactory());
+		return result;
+	}
+
+	/**
+	 * See {@link FactJ#factory(Class, String)}.
+	 * @param clazz
+	 * @param name
+	 * @return
+	 */
+	public <T> FactoryHandle<T> factory(Class<T> clazz, String name) {
+		Factory f = lookup(clazz, name);
+		if (f == null)
+			return null;
+		return new FactoryHandle<T>(this, f, clazz);
+	}
+
+	/**
+	 * @return The first {@link Overrides} given to a build or <strong>null</strong>.
+	 */
+	private static Overrides overridesIn(Decorator<?>[] decorators, Decorator<?> decorator) {
+		if (decorators != null)
+			for (Decorator<?> d : decorators)
+				if (d instanceof Overrides)
+					return (Overrides) d;
+		return decorator instanceof Overrides ? (Overrides) decorator : null;
+	}
+
+	/**
+	 * See {@link FactJ#create(Class, String, Decorator...)}.
+	 * @param clazz
+	 * @param name
+	 * @param decorators
+	 * @return
+	 */
+	public Object create(Class<?> clazz, String name, Decorator<?> ... decorators) {
+		return create(null, clazz, name, decorators);
+	}
+
+	Object create(BuildContext parent, Class<?> clazz, String name, Decorator<?>[] decorators) {
+		Factory f = lookup(clazz, name);
+		if (f == null)
+			return null;
+		if (parent != null) {
+			BuildContext cycle = checkPath(parent, f);
+			if (cycle != null)
+				return cycle.getTarget();
+		}
+		Object o = fabricate(f, parent, decorators, true);
+		// A lazy association may be created after the build that forked its context, when
+		// the objects kept in getSaves() were already saved.
+		if (parent != null && parent.getSaves() != null && !parent.isFinished()) {
+			parent.getSaves().add(o);
+			return o;
+		}
+		return save(o);
+	}
+
+	/**
+	 * See {@link FactJ#buildList(Class, String, int, Decorator...)}.
+	 * @param clazz
+	 * @param name
+	 * @param count
+	 * @param decorators
+	 * @return
+	 */
+	public List<Object> buildList(Class<?> clazz, String name, int count,
+			Decorator<?> ... decorators) {
+		return buildList(clazz, name, count, decorators, false);
+	}
+
+	/**
+	 * See {@link FactJ#createList(Class, String, int, Decorator...)}.
+	 * @param clazz
+	 * @param name
+	 * @param count
+	 * @param decorators
+	 * @return
+	 */
+	public List<Object> createList(Class<?> clazz, String name, int count,
+			Decorator<?> ... decorators) {
+		return saveAll(buildList(clazz, name, count, decorators, true));
+	}
+
+	private List<Object> buildList(Class<?> clazz, String name, int count,
+			Decorator<?>[] decorators, boolean persist) {
+		Factory f = lookup(clazz, name);
+		if (f == null)
+			return null;
+		List<Object> result = new ArrayList<Object>(count);
+		for (int i = 0; i < count; i++)
+			result.add(fabricate(f, null, decorators, persist));
+		return result;
+	}
+
+	/**
+	 * See {@link FactJ#stream(Class, String, long, Decorator...)}.
+	 * @param clazz
+	 * @param name
+	 * @param count
+	 * @param decorators
+	 * @return
+	 */
+	public <T> Stream<T> stream(Class<T> clazz, String name, long count,
+			Decorator<?> ... decorators) {
+		Factory f = lookup(clazz, name);
+		if (f == null)
+			return null;
+		return StreamSupport.stream(new FactorySpliterator<T>(this, f, decorators, count),
+				false);
+	}
+
+	/**
+	 * See {@link FactJ#stream(Class, String, Decorator...)}.
+	 * @param clazz
+	 * @param name
+	 * @param decorators
+	 * @return
+	 */
+	public <T> Stream<T> stream(Class<T> clazz, String name, final Decorator<?> ... decorators) {
+		final Factory f = lookup(clazz, name);
+		if (f == null)
+			return null;
+		return Stream.generate(new Supplier<T>() {
+			@SuppressWarnings("unchecked")
+			@Override
+			public T get() {
+				return (T) fabricate(f, null, decorators, false);
+			}
+		});
+	}
+
+	/**
+	 * Resolves the deferred values (see {@link BuildContext#defer(Supplier)}) of
+	 * <strong>o</strong> if it is the last object built without being saved in this thread,
+	 * so whatever it references lazily gets saved before it.
+	 * @param o
+	 */
+	void resolveDeferred(Object o) {
+		BuildContext context = unsaved.get();
+		if (context == null || context.getTarget() != o)
+			return;
+		unsaved.remove();
+		if (persistence != null)
+			context.resolveDeferred();
+	}
+
+	/**
+	 * See {@link FactJ#sink(int)}.
+	 * @param chunkSize
+	 * @return
+	 */
+	public ChunkedSink sink(int chunkSize) {
+		return new ChunkedSink(this, chunkSize);
+	}
+
+	Object save(Object o) {
+		Snapshot r = recording;
+		if (r != null)
+			r.saved(o);
+		Persistence p = persistence;
+		if (p == null)
+			return o;
+		if (batchSize > 0) {
+			boolean full;
+			synchronized (batch) {
+				batch.add(o);
+				full = batch.size() >= batchSize;
+			}
+			if (full)
+				flush();
+		} else {
+			BuildListener l = listener;
+			if (l == null)
+				p.save(o);
+			else {
+				long start = System.nanoTime();
+				p.save(o);
+				l.saved(Collections.singletonList(o), System.nanoTime() - start);
+			}
+		}
+		return o;
+	}
+
+	List<Object> saveAll(List<Object> objects) {
+		Snapshot r = recording;
+		if (r != null && objects != null)
+			r.saved(objects);
+		if (persistence == null || objects == null)
+			return objects;
+		if (batchSize > 0) {
+			boolean full;
+			synchronized (batch) {
+				batch.addAll(objects);
+				full = batch.size() >= batchSize;
+			}
+			if (full)
+				flush();
+		} else
+			write(objects);
+		return objects;
+	}
+
+	private void write(List<Object> objects) {
+		Persistence p = persistence;
+		if (p == null)
+			return;
+		BuildListener l = listener;
+		long start = l == null ? 0 : System.nanoTime();
+		if (p instanceof BatchPersistence)
+			((BatchPersistence) p).saveAll(objects);
+		else
+			for (Object o : objects)
+				p.save(o);
+		if (l != null)
+			l.saved(objects, System.nanoTime() - start);
+	}
+
+	/**
+	 * Gives the next value of the <strong>sequence</strong> in this context.
+	 * @param sequence
+	 * @return The value or <strong>null</strong> if this is the default context, where
+	 * sequences keep their own values.
+	 */
+	public Integer nextValue(SequenceDecorator sequence) {
+		if (sequences == null)
+			return null;
+		return counter(sequence).next();
+	}
+
+	int reserve(SequenceDecorator sequence, int size) {
+		if (sequences == null)
+			return sequence.reserve(size);
+		return counter(sequence).count.getAndAdd(size);
+	}
+
+	int getNextValue(SequenceDecorator sequence) {
+		if (sequences == null)
+			return sequence.getNextValue();
+		return counter(sequence).count.get();
+	}
+
+	void setNextValue(SequenceDecorator sequence, int value) {
+		if (sequences == null)
+			sequence.setNextValue(value);
+		else
+			counter(sequence).count.set(value);
+	}
+
+	private Counter counter(SequenceDecorator sequence) {
+		Counter counter = sequences.get(sequence);
+		if (counter == null) {
+			Counter created = new Counter(sequence.getInitialValue(), sequence.getBlockSize());
+			counter = sequences.putIfAbsent(sequence, created);
+			if (counter == null)
+				counter = created;
+		}
+		return counter;
+	}
+
+	/**
+	 * The values of a sequence in this context. Like {@link SequenceDecorator#next()}, each
+	 * thread reserves a block of values at a time if the sequence asks for it.
+	 */
+	private static final class Counter {
+		private final AtomicInteger count;
+		private final int blockSize;
+		private final ThreadLocal<int[]> block;
+
+		Counter(int initialValue, int blockSize) {
+			this.count = new AtomicInteger(initialValue);
+			this.blockSize = blockSize;
+			this.block = blockSize == 1 ? null : new ThreadLocal<int[]>() {
+				@Override
+				protected int[] initialValue() {
+					return new int[2];
+				}
+			};
+		}
+
+		int next() {
+			if (block == null)
+				return count.getAndIncrement();
+			int[] b = block.get();
+			if (b[0] == b[1]) {
+				b[0] = count.getAndAdd(blockSize);
+				b[1] = b[0] + blockSize;
+			}
+			return b[0]++;
+		}
+	}
+
+	/**
+	 * See {@link FactJ#clear()}. The factories of the parent of this context are kept, and
+	 * the sequences of this context start over.
+	 */
+	public void clear() {
+		synchronized (batch) {
+			batch.clear();
+		}
+		batchSize = 0;
+		factories.clear();
+		if (sequences != null)
+			sequences.clear();
+		discovered.clear();
+		autoDiscovered = false;
+		defaultScope = new Scope();
+	}
+}
@@ -1,7 +1,13 @@
 package factj;
 
+import java.util.function.Supplier;
+
 import factj.decorators.AssociationDecorator;
+import factj.decorators.DerivedDecorator;
+import factj.decorators.DerivedDecorator.Derivation;
 import factj.decorators.FieldDecorator;
+import factj.decorators.Overrides;
+import factj.decorators.ParentDecorator;
 import factj.decorators.SequenceDecorator;
 import factj.decorators.SequenceDecorator.Sequence;
 
@@ -17,9 +23,10 @@ public abstract class FactJHelper {
 	 * with the given <strong>decorators</strong> that customize the objects when they get built.
 	 * @param clazz Class that the factory will concern about.
 	 * @param decorators Array of {@link Decorator} that customize the object when it gets built.
+	 * @return The registered factory.
 	 */
-	public static void fabricate(Class<?> clazz, Decorator<?> ... decorators) {
-		FactJ.registerFactory(new Factory(clazz, decorators));
+	public static Factory fabricate(Class<?> clazz, Decorator<?> ... decorators) {
+		return FactJ.registerFactory(new Factory(clazz, decorators));
 	}
 
 	/**
@@ -28,9 +35,40 @@ public abstract class FactJHelper {
 	 * the objects when they get built.
 	 * @param clazz Class that the factory will concern about.
 	 * @param decorators Array of {@link Decorator} that customize the objects when they get built.
+	 * @return The registered factory.
+	 */
+	public static Factory fabricate(Class<?> clazz, String name, Decorator<?> ... decorators) {
+		return FactJ.registerFactory(new Factory(clazz, name, decorators));
+	}
+
+	/**
+	 * Generates and registers a {@link Factory} for the given <strong>clazz</strong>
+	 * that creates its objects through the given <strong>instantiator</strong>.
+	 * See {@link Factory#Factory(Class, String, Supplier, Decorator...)}.
+	 * @param clazz Class that the factory will concern about.
+	 * @param instantiator Creates the instances, like <code>Person::new</code>.
+	 * @param decorators Array of {@link Decorator} that customize the objects when they get built.
+	 * @return The registered factory.
+	 */
+	public static <T> Factory fabricate(Class<T> clazz, Supplier<? extends T> instantiator,
+			Decorator<?> ... decorators) {
+		return FactJ.registerFactory(new Factory(clazz, "", instantiator, decorators));
+	}
+
+	/**
+	 * Generates and registers a {@link Factory} for the given <strong>clazz</strong>
+	 * with the given <strong>name</strong> that creates its objects through the given
+	 * <strong>instantiator</strong>.
+	 * See {@link Factory#Factory(Class, String, Supplier, Decorator...)}.
+	 * @param clazz Class that the factory will concern about.
+	 * @param name The name of the factory.
+	 * @param instantiator Creates the instances, like <code>Person::new</code>.
+	 * @param decorators Array of {@link Decorator} that customize the objects when they get built.
+	 * @return The registered factory.
 	 */
-	public static void fabricate(Class<?> clazz, String name, Decorator<?> ... decorators) {
-		FactJ.registerFactory(new Factory(clazz, name, decorators));
+	public static <T> Factory fabricate(Class<T> clazz, String name,
+			Supplier<? extends T> instantiator, Decorator<?> ... decorators) {
+		return FactJ.registerFactory(new Factory(clazz, name, instantiator, decorators));
 	}
 
 	/**
@@ -43,6 +81,50 @@ public abstract class FactJHelper {
 		return new FieldDecorator(fieldName, value);
 	}
 
+	/**
+	 * Helper method that generates a {@link ParentDecorator}, which makes a factory inherit
+	 * the decorators of the factory of the same Class and the given <strong>name</strong>.
+	 * @param name The name of the parent factory.
+	 * @return A {@link ParentDecorator}.
+	 */
+	public static Decorator<Object> parent(String name) {
+		return new ParentDecorator(null, name);
+	}
+
+	/**
+	 * See {@link ParentDecorator#ParentDecorator(Class, String)}.
+	 * @param clazz The Class of the parent factory.
+	 * @param name The name of the parent factory.
+	 * @return A {@link ParentDecorator}.
+	 */
+	public static Decorator<Object> parent(Class<?> clazz, String name) {
+		return new ParentDecorator(clazz, name);
+	}
+
+	/**
+	 * See {@link DerivedDecorator#DerivedDecorator(String, Derivation, String...)}.
+	 * @param fieldName The name of the field to be derived.
+	 * @param derivation Computes the value of the field from the values of the
+	 * <strong>dependencies</strong>.
+	 * @param dependencies The names of the fields the value is computed from.
+	 * @return A {@link DerivedDecorator} implementation.
+	 */
+	public static Decorator<Object> derived(String fieldName, Derivation derivation,
+			String ... dependencies) {
+		return new DerivedDecorator(fieldName, derivation, dependencies);
+	}
+
+	/**
+	 * Helper method that generates {@link Overrides}, to be given to the build and create
+	 * methods of {@link FactJ}, like <code>with("name", "X").and("email", "y")</code>.
+	 * @param fieldName The name of the field to be overridden.
+	 * @param value The value the field will receive instead of the one of the factory.
+	 * @return The {@link Overrides}.
+	 */
+	public static Overrides with(String fieldName, Object value) {
+		return new Overrides(fieldName, value);
+	}
+
 	/**
 	 * Helper method that generates a {@link Decorator} of the type {@link SequenceDecorator}.
 	 * @param fieldName The name of the field that needs to be changed.
@@ -74,13 +156,27 @@ public abstract class FactJHelper {
 		return new SequenceDecorator(fieldName, initialValue);
 	}
 
+	/**
+	 * See {@link SequenceDecorator#SequenceDecorator(String, Sequence, int, int)}.
+	 * @param fieldName The name of the field that needs to be changed.
+	 * @param sequence The {@link Sequence} that needs to get called to customize the field.
+	 * It may be <strong>null</strong>.
+	 * @param initialValue The first value of the sequence. Default: 1.
+	 * @param blockSize How many values each thread reserves at a time.
+	 * @return A {@link SequenceDecorator} implementation.
+	 */
+	public static Decorator<Object> sequence(String fieldName, Sequence sequence,
+			int initialValue, int blockSize) {
+		return new SequenceDecorator(fieldName, sequence, initialValue, blockSize);
+	}
+
 	/**
 	 * Helper method that generates a {@link Decorator} of the type {@link AssociationDecorator}.
 	 * See {@link AssociationDecorator#AssociationDecorator(String)} for details.
 	 * @param fieldName The name of the field that needs to be changed.
 	 * @return An {@link AssociationDecorator} implementation.
 	 */
-	public static Decorator<Object> association(String fieldName) {
+	public static AssociationDecorator association(String fieldName) {
 		return new AssociationDecorator(fieldName);
 	}
 
@@ -90,7 +186,7 @@ public abstract class FactJHelper {
 	 * @param decorators To customize the generated object.
 	 * @return An {@link AssociationDecorator} implementation.
 	 */
-	public static Decorator<Object> association(String fieldName, Decorator<?>... decorators) {
+	public static AssociationDecorator association(String fieldName, Decorator<?>... decorators) {
 		return new AssociationDecorator(fieldName, null, "", decorators);
 	}
 
@@ -101,7 +197,7 @@ public abstract class FactJHelper {
 	 * @param factoryName The name of the factory that must be used.
 	 * @return An {@link AssociationDecorator} implementation.
 	 */
-	public static Decorator<Object> association(String fieldName, String factoryName) {
+	public static AssociationDecorator association(String fieldName, String factoryName) {
 		return new AssociationDecorator(fieldName, factoryName);
 	}
 
@@ -112,7 +208,7 @@ public abstract class FactJHelper {
 	 * @param factoryClass The Class of the object that will be set to the field. 
 	 * @return An {@link AssociationDecorator} implementation.
 	 */
-	public static Decorator<Object> association(String fieldName, Class<?> factoryClass) {
+	public static AssociationDecorator association(String fieldName, Class<?> factoryClass) {
 		return new AssociationDecorator(fieldName, factoryClass);
 	}
 
@@ -124,7 +220,7 @@ public abstract class FactJHelper {
 	 * @param factoryName The name of the factory that must be used.
 	 * @return An {@link AssociationDecorator} implementation.
 	 */
-	public static Decorator<Object> association(String fieldName, Class<?> factoryClass,
+	public static AssociationDecorator association(String fieldName, Class<?> factoryClass,
 			String factoryName) {
 		return new AssociationDecorator(fieldName, factoryClass, factoryName);
 	}
@@ -137,7 +233,7 @@ public abstract class FactJHelper {
 	 * @param decorators To customize the generated object.
 	 * @return An {@link AssociationDecorator} implementation.
 	 */
-	public static Decorator<Object> association(String fieldName, Class<?> factoryClass,
+	public static AssociationDecorator association(String fieldName, Class<?> factoryClass,
 			String factoryName, Decorator<?>... decorators) {
 		return new AssociationDecorator(fieldName, factoryClass, factoryName, decorators);
 	}
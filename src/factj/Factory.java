@@ -1,14 +1,68 @@
 package factj;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+import factj.decorators.AssociationDecorator;
+import factj.decorators.FieldDecorator;
+import factj.decorators.Overrides;
+import factj.decorators.ParentDecorator;
+
 /**
  * This class is responsible of building objects.
  * @author Diego Aguir Selzlein
  *
  */
 public class Factory {
+	/**
+	 * How a {@link Factory} applies its decorators to the objects it builds.
+	 */
+	public enum Strategy {
+		/**
+		 * Calls each one of the decorators in order. This is the default.
+		 */
+		REFLECTIVE,
+		/**
+		 * Generates a class at the first build that does what the decorators would do,
+		 * setting constant fields directly. If the class can't be generated, the factory
+		 * falls back to {@link #REFLECTIVE}.
+		 */
+		COMPILED,
+		/**
+		 * Builds a template at the first build, setting the constant fields on it. The
+		 * next builds copy the template and call only the other decorators. Classes that
+		 * implement {@link Cloneable} are copied through their public <code>clone()</code>
+		 * (on Java 8, {@link Object#clone()} is used if they don't override it). The others
+		 * are built new and get the constant values straight from a plan of their fields.
+		 */
+		PROTOTYPE
+	}
+
 	protected Class<?> clazz;
 	protected String name;
 	protected Decorator<?>[] decorators;
+	protected volatile Supplier<?> instantiator;
+	private volatile Supplier<?> constructor;
+	protected volatile Strategy strategy = Strategy.REFLECTIVE;
+	private volatile CompiledChain compiled;
+	private volatile boolean compileFailed;
+	private volatile Prototype prototype;
+	protected volatile Executor associationExecutor;
+	private volatile ParallelAssociations parallel;
+	private volatile Decorator<?>[] chain;
+	private volatile boolean chainResolved;
+	private volatile FactJContext parentContext;
+	private final ConcurrentMap<List<String>, OverridePlan> overridePlans =
+			new ConcurrentHashMap<List<String>, OverridePlan>();
+	private final ConcurrentMap<Set<String>, OverridePlan> mergedPlans =
+			new ConcurrentHashMap<Set<String>, OverridePlan>();
 
 	public Factory(Class<?> clazz) {
 		this(clazz, (Decorator[])null);
@@ -32,8 +86,25 @@ public class Factory {
 	 * @param decorators Array of {@link Decorator} that customize the objects.
 	 */
 	public Factory(Class<?> clazz, String name, Decorator<?> ... decorators) {
+		this(clazz, name, null, decorators);
+	}
+
+	/**
+	 * Generates a {@link Factory} that creates its objects through the given
+	 * <strong>instantiator</strong> instead of the constructor without arguments of
+	 * <strong>clazz</strong>. This way, classes that need arguments in their constructors
+	 * can be built too.
+	 * @param clazz Class of the objects this factory will build.
+	 * @param name The factory's name that distinguishes it from other factories of the same Class.
+	 * @param instantiator Creates the instances, like <code>Person::new</code>. When
+	 * <strong>null</strong>, the constructor without arguments will be used.
+	 * @param decorators Array of {@link Decorator} that customize the objects.
+	 */
+	public Factory(Class<?> clazz, String name, Supplier<?> instantiator,
+			Decorator<?> ... decorators) {
 		this.clazz = clazz;
 		this.name = name;
+		this.instantiator = instantiator;
 		this.decorators = decorators;
 	}
 
@@ -43,6 +114,23 @@ public class Factory {
 
 	public void setClazz(Class<?> clazz) {
 		this.clazz = clazz;
+		reset();
+	}
+
+	/**
+	 * Discards everything resolved from {@link #clazz}, {@link #decorators}, the instantiator
+	 * and the {@link Strategy}.
+	 */
+	private void reset() {
+		constructor = null;
+		compiled = null;
+		compileFailed = false;
+		prototype = null;
+		parallel = null;
+		chain = null;
+		chainResolved = false;
+		overridePlans.clear();
+		mergedPlans.clear();
 	}
 
 	public String getName() {
@@ -53,20 +141,440 @@ public class Factory {
 		this.name = name;
 	}
 
+	public Supplier<?> getInstantiator() {
+		return instantiator;
+	}
+
+	/**
+	 * @param instantiator Creates the instances, like <code>Person::new</code>. When
+	 * <strong>null</strong>, the constructor without arguments will be used.
+	 */
+	public void setInstantiator(Supplier<?> instantiator) {
+		this.instantiator = instantiator;
+		reset();
+	}
+
+	public Strategy getStrategy() {
+		return strategy;
+	}
+
+	/**
+	 * @param strategy How the decorators get applied. Default: {@link Strategy#REFLECTIVE}.
+	 * @return This factory.
+	 */
+	public Factory setStrategy(Strategy strategy) {
+		this.strategy = strategy == null ? Strategy.REFLECTIVE : strategy;
+		reset();
+		return this;
+	}
+
+	/**
+	 * Generates the class used by the {@link Strategy#COMPILED} strategy right away, instead
+	 * of at the first build.
+	 * @return <strong>true</strong> if the class is available, <strong>false</strong> if this
+	 * factory doesn't use that strategy or the class couldn't be generated.
+	 */
+	public boolean compile() {
+		return strategy == Strategy.COMPILED && compiledChain() != null;
+	}
+
+	public Executor getAssociationExecutor() {
+		return associationExecutor;
+	}
+
+	/**
+	 * Makes the associations of the objects built by this factory be built concurrently
+	 * on the given <strong>executor</strong>, like a {@link java.util.concurrent.ForkJoinPool}.
+	 * Associations that use the same factories, directly or through their own associations,
+	 * are still built one after the other, in the order they were declared, so sequences give
+	 * the same values they would give without an executor. Objects created by other threads
+	 * are saved by the thread building the owner, also in that order.
+	 * <p>
+	 * Only the {@link Strategy#REFLECTIVE} strategy builds associations concurrently. Lazy
+	 * associations and associations declared after a custom {@link Decorator} are built the
+	 * usual way. When factories that build associations concurrently are nested, prefer a
+	 * {@link java.util.concurrent.ForkJoinPool}, since the threads wait for each other.
+	 * @param executor <strong>null</strong> builds the associations in the calling thread.
+	 * This is the default.
+	 * @return This factory.
+	 */
+	public Factory setAssociationExecutor(Executor executor) {
+		this.associationExecutor = executor;
+		return this;
+	}
+
+	/**
+	 * Resolves now what the first build would resolve: the constructor, the fields set by
+	 * the decorators and, depending on the {@link Strategy}, the generated class or the
+	 * template. Nothing is built and no sequence value is used. Problems that would make
+	 * builds fail are left for the builds to report.
+	 * @return This factory.
+	 */
+	public Factory warmUp() {
+		return warmUp(FactJContext.current());
+	}
+
+	/**
+	 * See {@link #warmUp()}.
+	 * @param factJ Where the factories of the associations are looked up.
+	 * @return This factory.
+	 */
+	Factory warmUp(FactJContext factJ) {
+		if (instantiator == null && constructor == null)
+			try {
+				constructor = Instantiators.forClass(clazz);
+			} catch (IllegalStateException e) {
+				// The build will report it.
+			}
+		if (decorators != null)
+			for (Decorator<?> d : decorators)
+				if (d instanceof FieldDecorator)
+					try {
+						FieldAccessor.forField(clazz, ((FieldDecorator) d).getFieldName());
+					} catch (IllegalArgumentException e) {
+						// Subclasses built by the instantiator may have the field.
+					}
+		try {
+			chain();
+			if (strategy == Strategy.COMPILED)
+				compiledChain();
+			else if (strategy == Strategy.PROTOTYPE
+					&& (instantiator != null || constructor != null))
+				prototype();
+			if (associationExecutor != null)
+				parallelAssociations(factJ);
+		} catch (RuntimeException e) {
+			// The build will report it.
+		}
+		return this;
+	}
+
 	/**
 	 * Builds a new object. Every time this method gets called, a new instance of
 	 * {@link #clazz} will be created and all the {@link #decorators} will be called on it.
 	 * @return
 	 */
-	@SuppressWarnings({ "rawtypes", "unchecked" })
 	public Object fabricate() {
-		try {
-			Object o = clazz.newInstance();
-			for (Decorator d : decorators)
-				d.decorate(o);
+		BuildContext context = new BuildContext(null, this);
+		Object o = fabricate(context);
+		context.finish();
+		return o;
+	}
+
+	/**
+	 * Builds a new object the same way {@link #fabricate()} does, within the given
+	 * <strong>context</strong>. The context must not be shared with other builds.
+	 * @param context
+	 * @return
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public Object fabricate(BuildContext context) {
+		if (strategy == Strategy.PROTOTYPE) {
+			Prototype p = prototype();
+			Object o = p.copy();
+			context.setTarget(o);
+			p.decorate(o, context);
 			return o;
-		} catch (Exception e) {
-			throw new RuntimeException(e);
 		}
+		Object o = instantiate();
+		context.setTarget(o);
+		if (strategy == Strategy.COMPILED && o.getClass() == clazz) {
+			CompiledChain chain = compiledChain();
+			if (chain != null) {
+				chain.run(o, context);
+				return o;
+			}
+		}
+		Executor executor = associationExecutor;
+		if (executor != null && strategy == Strategy.REFLECTIVE && o.getClass() == clazz) {
+			ParallelAssociations plan = parallelAssociations(context.getFactJContext());
+			if (plan != null) {
+				plan.decorate(o, context, executor);
+				return o;
+			}
+		}
+		BuildListener listener = context.getListener();
+		Decorator<?>[] ds = chain();
+		if (ds != null)
+			for (Decorator d : ds)
+				if (listener == null)
+					d.decorate(o, context);
+				else {
+					long start = System.nanoTime();
+					d.decorate(o, context);
+					listener.decorated(context, d, System.nanoTime() - start);
+				}
+		return o;
+	}
+
+	/**
+	 * Builds a new object setting the values of the <strong>overrides</strong> instead of
+	 * calling the decorators that set the same fields. The other decorators are called one
+	 * by one, whatever the {@link Strategy}, and the associations are built one after the
+	 * other even if there is an association executor (see
+	 * {@link #setAssociationExecutor(Executor)}). How the decorators are merged with the
+	 * overridden fields is worked out once for each set of fields.
+	 * @param context Must not be shared with other builds.
+	 * @param overrides
+	 * @return
+	 */
+	public Object fabricate(BuildContext context, Overrides overrides) {
+		Object o = instantiate();
+		context.setTarget(o);
+		overridePlan(overrides.getFields()).decorate(o, context, overrides);
+		return o;
+	}
+
+	/**
+	 * The decorators are merged with the overridden fields once for each set of fields. The
+	 * plans for each order the fields are given in share them.
+	 */
+	private OverridePlan overridePlan(List<String> fields) {
+		OverridePlan plan = overridePlans.get(fields);
+		if (plan == null) {
+			Set<String> key = new HashSet<String>(fields);
+			OverridePlan merged = mergedPlans.get(key);
+			if (merged == null) {
+				merged = OverridePlan.of(this, chain(), fields);
+				OverridePlan existing = mergedPlans.putIfAbsent(key, merged);
+				if (existing != null)
+					merged = existing;
+			}
+			plan = merged.forFields(clazz, fields);
+			OverridePlan existing = overridePlans.putIfAbsent(new ArrayList<String>(fields),
+					plan);
+			if (existing != null)
+				plan = existing;
+		}
+		return plan;
+	}
+
+	/**
+	 * Replaces the {@link ParentDecorator} among the {@link #decorators}, if any, by the
+	 * decorators of the parent factory registered in the <strong>context</strong>. The
+	 * {@link FieldDecorator}s of this factory take the place of the ones of the parent that
+	 * set the same fields; the other decorators follow the parent's. If the parent is not
+	 * registered yet, it is looked up in the <strong>context</strong> again at the first
+	 * build (see {@link #decorators()}), so factories may be registered in any order.
+	 * <p>
+	 * Only the decorators and the instantiator of the parent are inherited. The
+	 * {@link Strategy} and the association executor are the ones set on this factory.
+	 * @param context
+	 * @throws IllegalArgumentException If there is more than one parent or this factory
+	 * doesn't build objects of the parent's Class.
+	 */
+	void inherit(FactJContext context) {
+		ParentDecorator marker = parent();
+		if (marker == null)
+			return;
+		parentContext = context;
+		if (context.getFactory(parentClass(marker), marker.getFactoryName()) != null)
+			try {
+				decorators();
+			} catch (IllegalStateException e) {
+				// The parent waits for its own parent. The first build will report it.
+			}
+	}
+
+	/**
+	 * @return The {@link #decorators}, with the {@link ParentDecorator} replaced by the
+	 * decorators of the parent if that was left for the first build (see
+	 * {@link #inherit(FactJContext)}).
+	 * @throws IllegalStateException If the parent is not registered or factories inherit
+	 * from each other in a cycle.
+	 */
+	Decorator<?>[] decorators() {
+		return parentContext == null ? decorators : inherit(new ArrayList<Factory>());
+	}
+
+	private Decorator<?>[] inherit(List<Factory> path) {
+		FactJContext context = parentContext;
+		if (context == null)
+			return decorators;
+		ParentDecorator marker = parent();
+		// Another thread may have replaced the marker meanwhile.
+		if (marker == null)
+			return decorators;
+		Class<?> c = parentClass(marker);
+		Factory parent = context.getFactory(c, marker.getFactoryName());
+		if (parent == null || parent == this)
+			throw new IllegalStateException("The parent of " + FactJContext.describe(this)
+					+ " is not registered: " + c.getSimpleName() + "(\""
+					+ (marker.getFactoryName() == null ? "" : marker.getFactoryName()) + "\")");
+		path.add(this);
+		if (path.contains(parent)) {
+			StringBuilder cycle = new StringBuilder();
+			for (Factory f : path.subList(path.indexOf(parent), path.size()))
+				cycle.append(FactJContext.describe(f)).append(" -> ");
+			throw new IllegalStateException("Factories inherit from each other in a cycle: "
+					+ cycle + FactJContext.describe(parent));
+		}
+		Decorator<?>[] inherited = parent.inherit(path);
+
+		synchronized (this) {
+			if (parentContext == null)
+				return decorators;
+			List<Decorator<?>> flat = new ArrayList<Decorator<?>>();
+			if (inherited != null)
+				flat.addAll(Arrays.asList(inherited));
+			for (Decorator<?> d : decorators) {
+				if (d == marker)
+					continue;
+				int replaced = -1;
+				if (d instanceof FieldDecorator)
+					for (int i = 0; i < flat.size() && replaced < 0; i++)
+						if (flat.get(i) instanceof FieldDecorator && ((FieldDecorator) flat
+								.get(i)).getFieldName().equals(((FieldDecorator) d)
+								.getFieldName()))
+							replaced = i;
+				if (replaced < 0)
+					flat.add(d);
+				else
+					flat.set(replaced, d);
+			}
+			decorators = flat.toArray(new Decorator<?>[flat.size()]);
+			if (instantiator == null && c == clazz)
+				instantiator = parent.instantiator;
+			reset();
+			parentContext = null;
+			return decorators;
+		}
+	}
+
+	/**
+	 * @return The {@link ParentDecorator} among the {@link #decorators} or
+	 * <strong>null</strong>.
+	 * @throws IllegalArgumentException If there is more than one.
+	 */
+	private ParentDecorator parent() {
+		ParentDecorator marker = null;
+		if (decorators != null)
+			for (Decorator<?> d : decorators)
+				if (d instanceof ParentDecorator) {
+					if (marker != null)
+						throw new IllegalArgumentException(FactJContext.describe(this)
+								+ " has more than one parent");
+					marker = (ParentDecorator) d;
+				}
+		return marker;
+	}
+
+	private Class<?> parentClass(ParentDecorator marker) {
+		Class<?> c = marker.getClazz() == null ? clazz : marker.getClazz();
+		if (!c.isAssignableFrom(clazz))
+			throw new IllegalArgumentException(FactJContext.describe(this)
+					+ " can't inherit from a factory of " + c.getName());
+		return c;
+	}
+
+	/**
+	 * @return The decorators in the order they are called: the {@link #decorators} with the
+	 * derived ones moved right after the field decorators setting their
+	 * dependencies. See {@link factj.decorators.DerivedDecorator}.
+	 */
+	private Decorator<?>[] chain() {
+		if (chainResolved)
+			return chain;
+		decorators();
+		synchronized (this) {
+			if (!chainResolved) {
+				chain = DerivedFields.chain(clazz, decorators);
+				chainResolved = true;
+			}
+			return chain;
+		}
+	}
+
+	/**
+	 * @param target
+	 * @return <strong>true</strong> if one of the decorators of this factory is an
+	 * association that may build its objects with the <strong>target</strong> factory.
+	 */
+	boolean associates(Factory target) {
+		Decorator<?>[] ds = chain();
+		if (ds == null)
+			return false;
+		String targetName = target.name == null ? "" : target.name;
+		for (Decorator<?> d : ds) {
+			if (!(d instanceof AssociationDecorator))
+				continue;
+			AssociationDecorator a = (AssociationDecorator) d;
+			if (!targetName.equals(a.getFactoryName() == null ? "" : a.getFactoryName()))
+				continue;
+			Class<?> c = a.getClazz();
+			if (c == null)
+				try {
+					c = FieldAccessor.forField(clazz, a.getFieldName()).getType();
+				} catch (IllegalArgumentException e) {
+					return true;
+				}
+			if (c == Supplier.class || c.isAssignableFrom(target.clazz))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param factJ Where the factories of the associations are looked up.
+	 * @return The plan to build the associations concurrently or <strong>null</strong> if
+	 * there is none. The plan is worked out again when factories are registered or cleared,
+	 * or when the factory is used by another {@link FactJContext}.
+	 */
+	private ParallelAssociations parallelAssociations(FactJContext factJ) {
+		ParallelAssociations plan = parallel;
+		if (plan == null || !plan.isCurrent(factJ))
+			synchronized (this) {
+				plan = parallel;
+				if (plan == null || !plan.isCurrent(factJ)) {
+					plan = ParallelAssociations.of(this, chain(), factJ);
+					parallel = plan;
+				}
+			}
+		return plan.isParallel() ? plan : null;
+	}
+
+	private Prototype prototype() {
+		Prototype p = prototype;
+		if (p != null)
+			return p;
+		synchronized (this) {
+			if (prototype == null) {
+				Decorator<?>[] ds = chain();
+				prototype = Prototype.of(this, ds == null ? new Decorator<?>[0] : ds);
+			}
+			return prototype;
+		}
+	}
+
+	private CompiledChain compiledChain() {
+		CompiledChain chain = compiled;
+		if (chain != null || compileFailed)
+			return chain;
+		synchronized (this) {
+			if (compiled == null && !compileFailed)
+				try {
+					Decorator<?>[] ds = chain();
+					compiled = ChainCompiler.compile(this, ds == null ? new Decorator<?>[0] : ds);
+				} catch (Exception e) {
+					compileFailed = true;
+				}
+			return compiled;
+		}
+	}
+
+	/**
+	 * Creates a new instance of {@link #clazz} through the {@link #instantiator}. If there is
+	 * none, the constructor without arguments is resolved the first time this method
+	 * gets called and reused after that.
+	 * @return
+	 */
+	protected Object instantiate() {
+		Supplier<?> i = instantiator;
+		if (i == null) {
+			i = constructor;
+			if (i == null)
+				constructor = i = Instantiators.forClass(clazz);
+		}
+		return i.get();
 	}
 }
@@ -0,0 +1,111 @@
+package factj;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Builds objects of type <strong>T</strong> using a factory looked up only once. See
+ * {@link FactJ#factory(Class, String)}.
+ * <pre>
+ * FactoryHandle&lt;Person&gt; clients = FactJ.factory(Person.class, "clients");
+ * Person p = clients.build();
+ * </pre>
+ * The objects need no casts and the methods take a fixed number of decorators, so no
+ * array is created for them. A handle keeps using the factory it was obtained for, even if
+ * the factories are cleared afterwards, and the {@link FactJContext} that was current then.
+ * @author Diego Aguir Selzlein
+ *
+ */
+public final class FactoryHandle<T> {
+	private final FactJContext factJ;
+	private final Factory factory;
+	private final Class<T> clazz;
+
+	FactoryHandle(FactJContext factJ, Factory factory, Class<T> clazz) {
+		this.factJ = factJ;
+		this.factory = factory;
+		this.clazz = clazz;
+	}
+
+	public Factory getFactory() {
+		return factory;
+	}
+
+	/**
+	 * See {@link FactJ#build(Class, String)}.
+	 * @return The object built by the factory.
+	 */
+	public T build() {
+		return clazz.cast(factJ.fabricate(factory, null, null, false));
+	}
+
+	/**
+	 * See {@link FactJ#build(Class, String, Decorator...)}.
+	 * @param decorator Used to customize the object after it is built.
+	 * @return The object built by the factory.
+	 */
+	public T build(Decorator<? super T> decorator) {
+		return clazz.cast(factJ.fabricate(new BuildContext(factJ, null, factory), null,
+				decorator, false));
+	}
+
+	/**
+	 * Builds an object through {@link #build()} and saves it if there is a
+	 * {@link Persistence}.
+	 * @return The object built by the factory.
+	 */
+	public T create() {
+		return clazz.cast(factJ.save(factJ.fabricate(factory, null, null, true)));
+	}
+
+	/**
+	 * Builds an object through {@link #build(Decorator)} and saves it if there is a
+	 * {@link Persistence}.
+	 * @param decorator Used to customize the object after it is built.
+	 * @return The object built by the factory.
+	 */
+	public T create(Decorator<? super T> decorator) {
+		return clazz.cast(factJ.save(factJ.fabricate(new BuildContext(factJ, null, factory),
+				null, decorator, true)));
+	}
+
+	/**
+	 * See {@link FactJ#buildList(Class, String, int, Decorator...)}.
+	 * @param count How many objects must be built.
+	 * @return The objects built by the factory.
+	 */
+	public List<T> buildList(int count) {
+		return buildList(count, false);
+	}
+
+	/**
+	 * See {@link FactJ#createList(Class, String, int, Decorator...)}.
+	 * @param count How many objects must be built.
+	 * @return The objects built by the factory.
+	 */
+	@SuppressWarnings("unchecked")
+	public List<T> createList(int count) {
+		List<T> result = buildList(count, true);
+		factJ.saveAll((List<Object>) (List<?>) result);
+		return result;
+	}
+
+	private List<T> buildList(int count, boolean persist) {
+		List<T> result = new ArrayList<T>(count);
+		for (int i = 0; i < count; i++)
+			result.add(clazz.cast(factJ.fabricate(factory, null, null, persist)));
+		return result;
+	}
+
+	/**
+	 * See {@link FactJ#stream(Class, String, long, Decorator...)}.
+	 * @param count How many objects the stream has.
+	 * @return
+	 */
+	public Stream<T> stream(long count) {
+		return StreamSupport.stream(new FactorySpliterator<T>(factJ, factory, null, count),
+				false);
+	}
+}
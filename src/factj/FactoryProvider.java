@@ -0,0 +1,26 @@
+package factj;
+
+/**
+ * Registers factories when FactJ discovers it, so factory classes don't need to be loaded
+ * by hand. Implementations must have a public constructor without arguments and be listed
+ * in <code>META-INF/services/factj.FactoryProvider</code>:
+ * <pre>
+ * public class AddressFactory implements FactoryProvider {
+ *     &#64;Override
+ *     public void register() {
+ *         fabricate(Address.class,
+ *             field("address", "Some address"));
+ *     }
+ * }
+ * </pre>
+ * See {@link FactJ#discover()}.
+ * @author Diego Aguir Selzlein
+ *
+ */
+public interface FactoryProvider {
+	/**
+	 * Registers the factories of this provider, usually through
+	 * {@link FactJHelper#fabricate(Class, Decorator...)}. It may be called by any thread.
+	 */
+	public void register();
+}
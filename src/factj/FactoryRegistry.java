@@ -0,0 +1,101 @@
+package factj;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the registered factories indexed by {@link Factory#clazz} and {@link Factory#name}.
+ * Lookups and registrations are safe to be done concurrently. A registry may have a parent,
+ * whose factories are seen when there is no factory with the same Class and name in the
+ * registry itself.
+ * @author Diego Aguir Selzlein
+ *
+ */
+final class FactoryRegistry {
+	private final ConcurrentMap<Class<?>, ConcurrentMap<String, Factory>> factories =
+			new ConcurrentHashMap<Class<?>, ConcurrentMap<String, Factory>>();
+	private final FactoryRegistry parent;
+	private final AtomicInteger changes = new AtomicInteger();
+
+	FactoryRegistry() {
+		this(null);
+	}
+
+	FactoryRegistry(FactoryRegistry parent) {
+		this.parent = parent;
+	}
+
+	/**
+	 * Registers the <strong>factory</strong>. If there is already a factory with the same
+	 * Class and name, the one registered first is kept.
+	 * @param factory
+	 * @return <strong>true</strong> if the factory was registered.
+	 */
+	boolean register(Factory factory) {
+		ConcurrentMap<String, Factory> named = factories.get(factory.getClazz());
+		if (named == null) {
+			named = new ConcurrentHashMap<String, Factory>();
+			ConcurrentMap<String, Factory> existing = factories.putIfAbsent(factory.getClazz(),
+					named);
+			if (existing != null)
+				named = existing;
+		}
+		if (named.putIfAbsent(nameOf(factory.getName()), factory) != null)
+			return false;
+		changes.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * @return A number that changes whenever a factory is registered or the registry is
+	 * cleared, here or in the parent, so what was worked out from the registered factories
+	 * can tell when it is stale.
+	 */
+	int version() {
+		return changes.get() + (parent == null ? 0 : parent.version());
+	}
+
+	/**
+	 * @param clazz
+	 * @param name
+	 * @return The factory registered for <strong>clazz</strong> and <strong>name</strong> or
+	 * <strong>null</strong> if there is none.
+	 */
+	Factory get(Class<?> clazz, String name) {
+		ConcurrentMap<String, Factory> named = factories.get(clazz);
+		Factory f = named == null ? null : named.get(nameOf(name));
+		if (f == null && parent != null)
+			return parent.get(clazz, name);
+		return f;
+	}
+
+	/**
+	 * @return Every registered factory, including the ones of the parent that are not
+	 * replaced by this registry.
+	 */
+	List<Factory> all() {
+		List<Factory> result = new ArrayList<Factory>();
+		if (parent != null)
+			for (Factory f : parent.all())
+				if (get(f.getClazz(), f.getName()) == f)
+					result.add(f);
+		for (ConcurrentMap<String, Factory> named : factories.values())
+			result.addAll(named.values());
+		return result;
+	}
+
+	/**
+	 * Removes the factories registered in this registry. The ones of the parent are kept.
+	 */
+	void clear() {
+		factories.clear();
+		changes.incrementAndGet();
+	}
+
+	private static String nameOf(String name) {
+		return name == null ? "" : name;
+	}
+}
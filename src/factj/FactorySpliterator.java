@@ -0,0 +1,210 @@
+package factj;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import factj.decorators.SequenceDecorator;
+
+/**
+ * Builds the objects of a stream one at a time, as they are consumed. See
+ * {@link FactJ#stream(Class, String, long, Decorator...)}.
+ * <p>
+ * The values of the sequences of the factory, and of the decorators given to the stream,
+ * are reserved in chunks as the objects are consumed, in the order of the objects in the
+ * stream. So each object gets a greater value than the ones before it, even if the stream
+ * is split among many threads, and a short-circuited stream only wastes the rest of its
+ * last chunks. The sequences of associated factories are not reserved: in parallel streams,
+ * they give their values in the order the objects happen to be built.
+ * @author Diego Aguir Selzlein
+ *
+ */
+final class FactorySpliterator<T> implements Spliterator<T> {
+	private final FactJContext factJ;
+	private final Factory factory;
+	private final Decorator<?>[] decorators;
+	private final Reservation reservation;
+	private long index;
+	private final long end;
+
+	FactorySpliterator(FactJContext factJ, Factory factory, Decorator<?>[] decorators,
+			long count) {
+		this(factJ, factory, decorators, Reservation.of(factJ, factory, decorators, count), 0,
+				count);
+	}
+
+	private FactorySpliterator(FactJContext factJ, Factory factory, Decorator<?>[] decorators,
+			Reservation reservation, long index, long end) {
+		this.factJ = factJ;
+		this.factory = factory;
+		this.decorators = decorators;
+		this.reservation = reservation;
+		this.index = index;
+		this.end = end;
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super T> action) {
+		if (index >= end)
+			return false;
+		action.accept(build(index++));
+		return true;
+	}
+
+	@Override
+	public void forEachRemaining(Consumer<? super T> action) {
+		for (; index < end; index++)
+			action.accept(build(index));
+	}
+
+	@SuppressWarnings("unchecked")
+	private T build(long i) {
+		BuildContext context = new BuildContext(factJ, null, factory);
+		if (reservation != null)
+			context.reserve(reservation.upTo(i), i);
+		return (T) factJ.fabricate(context, decorators, false);
+	}
+
+	@Override
+	public Spliterator<T> trySplit() {
+		long mid = (index + end) >>> 1;
+		if (mid <= index)
+			return null;
+		Spliterator<T> prefix = new FactorySpliterator<T>(factJ, factory, decorators,
+				reservation, index, mid);
+		index = mid;
+		return prefix;
+	}
+
+	@Override
+	public long estimateSize() {
+		return end - index;
+	}
+
+	@Override
+	public int characteristics() {
+		return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+	}
+
+	/**
+	 * The values reserved from each sequence for a stream. They are reserved in chunks, each
+	 * twice as big as the one before it, up to {@link #MAX_CHUNK}.
+	 */
+	static final class Reservation {
+		private static final int FIRST_CHUNK = 16;
+		private static final int MAX_CHUNK = 1 << 16;
+
+		private final FactJContext factJ;
+		private final SequenceDecorator[] sequences;
+		private final long count;
+		/**
+		 * The chunks reserved so far, in the order of the stream.
+		 */
+		private volatile Chunk[] chunks = new Chunk[0];
+		/**
+		 * How many objects have their values reserved, from the first one on.
+		 */
+		private volatile long reserved;
+		private int chunkSize = FIRST_CHUNK;
+
+		private Reservation(FactJContext factJ, SequenceDecorator[] sequences, long count) {
+			this.factJ = factJ;
+			this.sequences = sequences;
+			this.count = count;
+		}
+
+		/**
+		 * @return The reservation for the sequences of the factory and the
+		 * <strong>decorators</strong> or <strong>null</strong> if there is no sequence.
+		 */
+		static Reservation of(FactJContext factJ, Factory factory, Decorator<?>[] decorators,
+				long count) {
+			List<SequenceDecorator> sequences = new ArrayList<SequenceDecorator>();
+			collect(factory.decorators(), sequences);
+			collect(decorators, sequences);
+			if (sequences.isEmpty())
+				return null;
+			return new Reservation(factJ, sequences.toArray(new SequenceDecorator[0]), count);
+		}
+
+		private static void collect(Decorator<?>[] decorators, List<SequenceDecorator> sequences) {
+			if (decorators != null)
+				for (Decorator<?> d : decorators)
+					if (d instanceof SequenceDecorator && !sequences.contains(d))
+						sequences.add((SequenceDecorator) d);
+		}
+
+		/**
+		 * Reserves the values of the objects up to the one at <strong>index</strong>, if they
+		 * aren't reserved yet.
+		 * @param index
+		 * @return This reservation.
+		 */
+		Reservation upTo(long index) {
+			if (index < reserved)
+				return this;
+			synchronized (this) {
+				while (index >= reserved) {
+					long r = reserved;
+					// The objects skipped, if any, belong to another part of a split stream.
+					int size = (int) Math.min(count - r, Math.max(chunkSize,
+							Math.min(index + 1 - r, Integer.MAX_VALUE)));
+					int[] starts = new int[sequences.length];
+					for (int i = 0; i < starts.length; i++)
+						starts[i] = factJ.reserve(sequences[i], size);
+					Chunk[] all = Arrays.copyOf(chunks, chunks.length + 1);
+					all[all.length - 1] = new Chunk(r, starts);
+					chunks = all;
+					reserved = r + size;
+					chunkSize = Math.min(chunkSize * 2, MAX_CHUNK);
+				}
+			}
+			return this;
+		}
+
+		/**
+		 * @param sequence
+		 * @param index The position of the object in the stream.
+		 * @return The value reserved for that object or <strong>null</strong> if the
+		 * sequence has no values reserved.
+		 */
+		Integer get(Object sequence, long index) {
+			for (int i = 0; i < sequences.length; i++)
+				if (sequences[i] == sequence) {
+					Chunk chunk = chunkOf(index);
+					return chunk.starts[i] + (int) (index - chunk.first);
+				}
+			return null;
+		}
+
+		private Chunk chunkOf(long index) {
+			Chunk[] cs = chunks;
+			int low = 0;
+			int high = cs.length - 1;
+			while (low < high) {
+				int mid = (low + high + 1) >>> 1;
+				if (cs[mid].first <= index)
+					low = mid;
+				else
+					high = mid - 1;
+			}
+			return cs[low];
+		}
+	}
+
+	/**
+	 * The first values of the sequences reserved for the objects of a stream from
+	 * <strong>first</strong> on.
+	 */
+	private static final class Chunk {
+		private final long first;
+		private final int[] starts;
+
+		Chunk(long first, int[] starts) {
+			this.first = first;
+			this.starts = starts;
+		}
+	}
+}
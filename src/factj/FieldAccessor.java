@@ -0,0 +1,169 @@
+package factj;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.WrongMethodTypeException;
+import java.lang.reflect.Field;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Gives access to a field of a Class. Each (Class, field name) pair is resolved only once,
+ * the first time it is asked for, into a {@link MethodHandle} that is reused by every
+ * later build.
+ * @author Diego Aguir Selzlein
+ *
+ */
+public final class FieldAccessor {
+	private static final MethodType SETTER_TYPE = MethodType.methodType(void.class,
+			Object.class, Object.class);
+	private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class,
+			Object.class);
+	private static final MethodType INT_SETTER_TYPE = MethodType.methodType(void.class,
+			Object.class, int.class);
+
+	private static final ClassValue<ConcurrentMap<String, FieldAccessor>> accessors =
+			new ClassValue<ConcurrentMap<String, FieldAccessor>>() {
+		@Override
+		protected ConcurrentMap<String, FieldAccessor> computeValue(Class<?> type) {
+			return new ConcurrentHashMap<String, FieldAccessor>();
+		}
+	};
+
+	private final Class<?> owner;
+	private final Field field;
+	private final MethodHandle getter;
+	private final MethodHandle setter;
+	private final MethodHandle intSetter;
+
+	private FieldAccessor(Class<?> owner, Field field) throws IllegalAccessException {
+		this.owner = owner;
+		this.field = field;
+		field.setAccessible(true);
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		getter = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+		MethodHandle mh = lookup.unreflectSetter(field);
+		setter = mh.asType(SETTER_TYPE);
+		MethodHandle ints = null;
+		try {
+			ints = mh.asType(INT_SETTER_TYPE);
+		} catch (WrongMethodTypeException e) {
+			// An int can't be assigned to this field. set(Object, Object) will complain.
+		}
+		intSetter = ints;
+	}
+
+	/**
+	 * Returns the {@link FieldAccessor} for the field named <strong>fieldName</strong>,
+	 * searching the superclasses of <strong>clazz</strong> if needed.
+	 * @param clazz The Class of the objects that will be changed.
+	 * @param fieldName The name of the field.
+	 * @return The cached accessor.
+	 * @throws IllegalArgumentException If there is no such field.
+	 */
+	public static FieldAccessor forField(Class<?> clazz, String fieldName) {
+		ConcurrentMap<String, FieldAccessor> fields = accessors.get(clazz);
+		FieldAccessor accessor = fields.get(fieldName);
+		if (accessor == null) {
+			accessor = resolve(clazz, fieldName);
+			FieldAccessor existing = fields.putIfAbsent(fieldName, accessor);
+			if (existing != null)
+				accessor = existing;
+		}
+		return accessor;
+	}
+
+	private static FieldAccessor resolve(Class<?> clazz, String fieldName) {
+		for (Class<?> c = clazz; c != null; c = c.getSuperclass())
+			for (Field f : c.getDeclaredFields())
+				if (f.getName().equals(fieldName))
+					try {
+						return new FieldAccessor(clazz, f);
+					} catch (Exception e) {
+						throw new IllegalArgumentException("Field '" + fieldName + "' of "
+								+ clazz.getName() + " is not accessible", e);
+					}
+		throw new IllegalArgumentException("There is no field named '" + fieldName + "' in "
+				+ clazz.getName() + " or its superclasses");
+	}
+
+	/**
+	 * @return The Class this accessor was resolved for. It may be a subclass of the one
+	 * that declares the field.
+	 */
+	public Class<?> getOwner() {
+		return owner;
+	}
+
+	public Field getField() {
+		return field;
+	}
+
+	public Class<?> getType() {
+		return field.getType();
+	}
+
+	/**
+	 * @param o
+	 * @return The value of the field in the object <strong>o</strong>. Primitive values
+	 * are boxed.
+	 */
+	public Object get(Object o) {
+		try {
+			return getter.invokeExact(o);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * @return The setter of this field, typed as <code>(Object, Object)void</code>.
+	 */
+	MethodHandle setter() {
+		return setter;
+	}
+
+	/**
+	 * Sets the <strong>value</strong> to the field in the object <strong>o</strong>.
+	 * @param o
+	 * @param value
+	 */
+	public void set(Object o, Object value) {
+		try {
+			setter.invokeExact(o, value);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Sets an int <strong>value</strong> to the field in the object <strong>o</strong>. When
+	 * the field is a primitive number, the value will not be boxed.
+	 * @param o
+	 * @param value
+	 */
+	public void setInt(Object o, int value) {
+		if (intSetter == null) {
+			set(o, value);
+			return;
+		}
+		try {
+			intSetter.invokeExact(o, value);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
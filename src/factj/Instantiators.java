@@ -0,0 +1,101 @@
+package factj;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+import java.util.function.Supplier;
+
+/**
+ * Resolves how the objects of a Class get instantiated when its {@link Factory} was not
+ * given an instantiator.
+ * @author Diego Aguir Selzlein
+ *
+ */
+final class Instantiators {
+	private Instantiators() {}
+
+	/**
+	 * Returns a {@link Supplier} that calls the constructor without arguments of
+	 * <strong>clazz</strong>. When the constructor is public and visible to FactJ, the
+	 * supplier is generated the same way <code>Person::new</code> would be. Otherwise, it
+	 * calls a {@link MethodHandle} to the constructor.
+	 * @param clazz
+	 * @return
+	 * @throws IllegalStateException If <strong>clazz</strong> can't be instantiated this way.
+	 */
+	static Supplier<Object> forClass(Class<?> clazz) {
+		if (clazz.isInterface() || Modifier.isAbstract(clazz.getModifiers()))
+			throw new IllegalStateException(clazz.getName() + " can't be instantiated. Give its "
+					+ "factory an instantiator.");
+		Constructor<?> constructor;
+		try {
+			constructor = clazz.getDeclaredConstructor();
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException(clazz.getName() + " has no constructor without "
+					+ "arguments. Give its factory an instantiator.", e);
+		}
+		try {
+			if (isPublic(clazz, constructor) && isVisible(clazz))
+				return generate(clazz);
+		} catch (Throwable e) {
+			// Falls back to the MethodHandle below.
+		}
+		try {
+			constructor.setAccessible(true);
+			return handle(MethodHandles.lookup().unreflectConstructor(constructor));
+		} catch (Exception e) {
+			throw new IllegalStateException("The constructor of " + clazz.getName()
+					+ " is not accessible. Give its factory an instantiator.", e);
+		}
+	}
+
+	private static boolean isPublic(Class<?> clazz, Constructor<?> constructor) {
+		if (!Modifier.isPublic(constructor.getModifiers()))
+			return false;
+		for (Class<?> c = clazz; c != null; c = c.getEnclosingClass())
+			if (!Modifier.isPublic(c.getModifiers()))
+				return false;
+		return clazz.getEnclosingClass() == null || Modifier.isStatic(clazz.getModifiers());
+	}
+
+	private static boolean isVisible(Class<?> clazz) {
+		try {
+			return Class.forName(clazz.getName(), false, Instantiators.class.getClassLoader())
+					== clazz;
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Supplier<Object> generate(Class<?> clazz) throws Throwable {
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		MethodHandle constructor = lookup.findConstructor(clazz, MethodType.methodType(void.class));
+		CallSite site = LambdaMetafactory.metafactory(lookup, "get",
+				MethodType.methodType(Supplier.class), MethodType.methodType(Object.class),
+				constructor, MethodType.methodType(clazz));
+		return (Supplier<Object>) site.getTarget().invokeExact();
+	}
+
+	private static Supplier<Object> handle(MethodHandle constructor) {
+		final MethodHandle mh = constructor.asType(MethodType.methodType(Object.class));
+		return new Supplier<Object>() {
+			@Override
+			public Object get() {
+				try {
+					return mh.invokeExact();
+				} catch (RuntimeException e) {
+					throw e;
+				} catch (Error e) {
+					throw e;
+				} catch (Throwable e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+	}
+}
@@ -0,0 +1,100 @@
+package factj;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import factj.decorators.AssociationDecorator;
+import factj.decorators.FieldDecorator;
+import factj.decorators.Overrides;
+import factj.decorators.SequenceDecorator;
+
+/**
+ * The decorators of a {@link Factory} merged with a set of overridden fields: the accessors
+ * of the overridden fields and the decorators that don't set any of them. A plan is made
+ * once per factory and set of fields, and reused by every build that overrides those fields,
+ * in whatever order they are given (see {@link #forFields(Class, List)}). See
+ * {@link Overrides}.
+ * <p>
+ * The overridden values are set before the decorators run, so they can use them. If any of
+ * the decorators is a custom one, which might set an overridden field too, the values are
+ * set again after them.
+ * @author Diego Aguir Selzlein
+ *
+ */
+final class OverridePlan {
+	private final List<String> fields;
+	private final FieldAccessor[] accessors;
+	private final Decorator<?>[] decorators;
+	private final boolean reapply;
+
+	private OverridePlan(List<String> fields, FieldAccessor[] accessors,
+			Decorator<?>[] decorators, boolean reapply) {
+		this.fields = fields;
+		this.accessors = accessors;
+		this.decorators = decorators;
+		this.reapply = reapply;
+	}
+
+	static OverridePlan of(Factory factory, Decorator<?>[] decorators, List<String> fields) {
+		List<Decorator<?>> kept = new ArrayList<Decorator<?>>();
+		boolean reapply = false;
+		if (decorators != null)
+			for (Decorator<?> d : decorators)
+				if (d instanceof DerivedFields) {
+					DerivedFields derived = ((DerivedFields) d).without(factory.getClazz(),
+							fields);
+					if (derived != null)
+						kept.add(derived);
+				} else if (!(d instanceof FieldDecorator)
+						|| !fields.contains(((FieldDecorator) d).getFieldName())) {
+					Class<?> c = d.getClass();
+					reapply |= c != FieldDecorator.class && c != SequenceDecorator.class
+							&& c != AssociationDecorator.class;
+					kept.add(d);
+				}
+		List<String> own = new ArrayList<String>(fields);
+		return new OverridePlan(own, accessors(factory.getClazz(), own),
+				kept.toArray(new Decorator<?>[kept.size()]), reapply);
+	}
+
+	private static FieldAccessor[] accessors(Class<?> clazz, List<String> fields) {
+		FieldAccessor[] accessors = new FieldAccessor[fields.size()];
+		for (int i = 0; i < accessors.length; i++)
+			accessors[i] = FieldAccessor.forField(clazz, fields.get(i));
+		return accessors;
+	}
+
+	/**
+	 * @param clazz
+	 * @param fields The same fields of this plan, maybe in another order.
+	 * @return A plan with the same decorators that takes the values of the overridden
+	 * fields in the order of <strong>fields</strong>.
+	 */
+	OverridePlan forFields(Class<?> clazz, List<String> fields) {
+		if (this.fields.equals(fields))
+			return this;
+		List<String> own = new ArrayList<String>(fields);
+		return new OverridePlan(own, accessors(clazz, own), decorators, reapply);
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	void decorate(Object o, BuildContext context, Overrides overrides) {
+		set(o, overrides);
+		BuildListener listener = context.getListener();
+		for (Decorator d : decorators)
+			if (listener == null)
+				d.decorate(o, context);
+			else {
+				long start = System.nanoTime();
+				d.decorate(o, context);
+				listener.decorated(context, d, System.nanoTime() - start);
+			}
+		if (reapply)
+			set(o, overrides);
+	}
+
+	private void set(Object o, Overrides overrides) {
+		for (int i = 0; i < accessors.length; i++)
+			accessors[i].set(o, overrides.getValue(i));
+	}
+}
@@ -0,0 +1,232 @@
+package factj;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import factj.decorators.AssociationDecorator;
+import factj.decorators.FieldDecorator;
+import factj.decorators.SequenceDecorator;
+
+/**
+ * Builds the associations of a {@link Factory} concurrently. See
+ * {@link Factory#setAssociationExecutor(Executor)}.
+ * <p>
+ * Associations are split into groups that don't share any factory or sequence, directly or
+ * through their own associations, including the decorators given to them. Each group is
+ * built in its own task, in the order the associations were declared, so every sequence
+ * gives the same values it would give if they were built one after the other. Objects
+ * created by the tasks are saved afterwards, by the thread building the owner, in that same
+ * order.
+ * <p>
+ * An association is only built ahead of the other decorators if no custom decorator comes
+ * before it, since a custom decorator might build objects using the same factories. For
+ * the same reason, there is no plan if an association reaches a sequence of the owner, or
+ * if the factories it reaches, or the decorators given to it, have custom decorators.
+ * <p>
+ * A plan depends on the factories registered in the context of the build, so it's only
+ * valid for that context and while no factory is registered or cleared there (see
+ * {@link #isCurrent(FactJContext)}).
+ * @author Diego Aguir Selzlein
+ *
+ */
+final class ParallelAssociations {
+	private final Decorator<?>[] decorators;
+	private final int[][] groups;
+	private final FactJContext factJ;
+	private final int version;
+
+	private ParallelAssociations(Decorator<?>[] decorators, int[][] groups,
+			FactJContext factJ, int version) {
+		this.decorators = decorators;
+		this.groups = groups;
+		this.factJ = factJ;
+		this.version = version;
+	}
+
+	/**
+	 * @param factory
+	 * @param decorators The decorators of the factory.
+	 * @param factJ Where the factories of the associations are looked up.
+	 * @return The plan to build the associations of the factory. If there aren't at least
+	 * two groups of associations to build concurrently, it isn't parallel
+	 * (see {@link #isParallel()}).
+	 */
+	static ParallelAssociations of(Factory factory, Decorator<?>[] decorators,
+			FactJContext factJ) {
+		int version = factJ.getRegistryVersion();
+		if (decorators == null)
+			return new ParallelAssociations(null, null, factJ, version);
+		Set<Object> own = new HashSet<Object>();
+		for (Decorator<?> d : decorators)
+			if (d instanceof SequenceDecorator)
+				own.add(d);
+
+		List<List<Integer>> members = new ArrayList<List<Integer>>();
+		List<Set<Object>> reaches = new ArrayList<Set<Object>>();
+		for (int i = 0; i < decorators.length; i++) {
+			Decorator<?> d = decorators[i];
+			Class<?> c = d.getClass();
+			if (c != FieldDecorator.class && c != SequenceDecorator.class
+					&& c != AssociationDecorator.class)
+				break;
+			if (c != AssociationDecorator.class || ((AssociationDecorator) d).isLazy())
+				continue;
+
+			List<Integer> group = new ArrayList<Integer>();
+			group.add(i);
+			Set<Object> reach = new HashSet<Object>();
+			if (!reach(factJ, factory.getClazz(), new Decorator<?>[] { d }, reach)
+					|| !disjoint(own, reach))
+				return new ParallelAssociations(null, null, factJ, version);
+			for (int g = members.size() - 1; g >= 0; g--)
+				if (!disjoint(reaches.get(g), reach)) {
+					group.addAll(0, members.remove(g));
+					reach.addAll(reaches.remove(g));
+				}
+			Collections.sort(group);
+			members.add(group);
+			reaches.add(reach);
+		}
+		if (members.size() < 2)
+			return new ParallelAssociations(null, null, factJ, version);
+
+		int[][] groups = new int[members.size()][];
+		for (int g = 0; g < groups.length; g++) {
+			groups[g] = new int[members.get(g).size()];
+			for (int i = 0; i < groups[g].length; i++)
+				groups[g][i] = members.get(g).get(i);
+		}
+		return new ParallelAssociations(decorators, groups, factJ, version);
+	}
+
+	/**
+	 * @return <strong>true</strong> if there are associations to build concurrently.
+	 */
+	boolean isParallel() {
+		return groups != null;
+	}
+
+	/**
+	 * @param factJ
+	 * @return <strong>false</strong> if the plan was worked out for another context, or if
+	 * factories were registered or cleared since then.
+	 */
+	boolean isCurrent(FactJContext factJ) {
+		return this.factJ == factJ && version == factJ.getRegistryVersion();
+	}
+
+	private static Factory target(FactJContext factJ, Class<?> owner, AssociationDecorator d) {
+		Class<?> c = d.getClazz();
+		if (c == null)
+			c = FieldAccessor.forField(owner, d.getFieldName()).getType();
+		return factJ.getFactory(c, d.getFactoryName());
+	}
+
+	/**
+	 * Adds to <strong>reach</strong> the factories and sequences used by the
+	 * <strong>decorators</strong> of an object of <strong>clazz</strong>.
+	 * @return <strong>false</strong> if one of them is a custom decorator, which might
+	 * build objects using any factory or sequence.
+	 */
+	private static boolean reach(FactJContext factJ, Class<?> clazz,
+			Decorator<?>[] decorators, Set<Object> reach) {
+		if (decorators == null)
+			return true;
+		for (Decorator<?> d : decorators) {
+			Class<?> c = d.getClass();
+			if (c == SequenceDecorator.class)
+				reach.add(d);
+			else if (c == AssociationDecorator.class) {
+				AssociationDecorator a = (AssociationDecorator) d;
+				Factory f = target(factJ, clazz, a);
+				if (f == null)
+					continue;
+				if (reach.add(f) && !reach(factJ, f.getClazz(), f.decorators(), reach))
+					return false;
+				if (!reach(factJ, f.getClazz(), a.getDecorators(), reach))
+					return false;
+			} else if (c != FieldDecorator.class)
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean disjoint(Set<Object> a, Set<Object> b) {
+		for (Object o : b)
+			if (a.contains(o))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Builds the associations concurrently and then runs all the decorators on
+	 * <strong>o</strong>, using the associated objects already built.
+	 * @param o
+	 * @param context
+	 * @param executor
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	void decorate(final Object o, final BuildContext context, Executor executor) {
+		final Object[] values = new Object[decorators.length];
+		final boolean[] built = new boolean[decorators.length];
+		final List<List<Object>> saves = new ArrayList<List<Object>>(decorators.length);
+		for (int i = 0; i < decorators.length; i++)
+			saves.add(new ArrayList<Object>());
+		List<CompletableFuture<Void>> tasks = new ArrayList<CompletableFuture<Void>>();
+		for (int g = 0; g < groups.length; g++) {
+			final int[] group = groups[g];
+			Runnable task = new Runnable() {
+				@Override
+				public void run() {
+					for (int i : group) {
+						values[i] = ((FieldDecorator) decorators[i]).getValue(o,
+								context.fork(saves.get(i)));
+						built[i] = true;
+					}
+				}
+			};
+			if (g == groups.length - 1)
+				run(task, tasks);
+			else
+				tasks.add(CompletableFuture.runAsync(task, executor));
+		}
+		for (List<Object> associationSaves : saves)
+			for (Object saved : associationSaves)
+				context.getFactJContext().save(saved);
+
+		for (int i = 0; i < decorators.length; i++)
+			if (built[i])
+				FieldAccessor.forField(o.getClass(), ((FieldDecorator) decorators[i])
+						.getFieldName()).set(o, values[i]);
+			else
+				((Decorator) decorators[i]).decorate(o, context);
+	}
+
+	private static void run(Runnable task, List<CompletableFuture<Void>> tasks) {
+		Throwable failure = null;
+		try {
+			task.run();
+		} catch (Throwable e) {
+			failure = e;
+		}
+		for (CompletableFuture<Void> t : tasks)
+			try {
+				t.join();
+			} catch (CompletionException e) {
+				if (failure == null)
+					failure = e.getCause();
+			}
+		if (failure instanceof RuntimeException)
+			throw (RuntimeException) failure;
+		if (failure instanceof Error)
+			throw (Error) failure;
+		if (failure != null)
+			throw new RuntimeException(failure);
+	}
+}
@@ -0,0 +1,161 @@
+package factj;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import factj.decorators.AssociationDecorator;
+import factj.decorators.FieldDecorator;
+import factj.decorators.SequenceDecorator;
+
+/**
+ * The template used by the {@link Factory.Strategy#PROTOTYPE} strategy. The constant
+ * {@link FieldDecorator}s of a factory are resolved only once, into the template. Each build
+ * copies the template and then runs only the remaining, dynamic decorators.
+ * <p>
+ * A constant decorator is moved to the template only if no other decorator of the factory
+ * changes the same field and no decorator that may read the object comes before it, so the
+ * objects built are the same as the ones built calling each decorator in order. Only
+ * {@link FieldDecorator}, {@link SequenceDecorator} and {@link AssociationDecorator} are
+ * known not to read it; subclasses of them are not.
+ * <p>
+ * Objects of classes that implement {@link Cloneable} and have a public
+ * <code>clone()</code> are copied through it. On Java 8, {@link Object#clone()} is used
+ * when the class doesn't override it; newer Java versions don't allow that. The other
+ * objects are built by the factory, and the constant values are set on them straight from
+ * a plan of their fields, skipping the decorators.
+ * @author Diego Aguir Selzlein
+ *
+ */
+final class Prototype {
+	private final Factory factory;
+	private final Object template;
+	private final MethodHandle cloner;
+	private final FieldAccessor[] constants;
+	private final Object[] values;
+	private final Decorator<?>[] dynamic;
+
+	private Prototype(Factory factory, Object template, MethodHandle cloner,
+			FieldAccessor[] constants, Object[] values, Decorator<?>[] dynamic) {
+		this.factory = factory;
+		this.template = template;
+		this.cloner = cloner;
+		this.constants = constants;
+		this.values = values;
+		this.dynamic = dynamic;
+	}
+
+	/**
+	 * Builds the template of the <strong>factory</strong>.
+	 * @param factory
+	 * @param decorators The decorators of the factory.
+	 * @return
+	 */
+	static Prototype of(Factory factory, Decorator<?>[] decorators) {
+		Class<?> clazz = factory.getClazz();
+		MethodHandle cloner = cloner(clazz);
+		Object template = cloner == null ? null : factory.instantiate();
+		if (template != null && template.getClass() != clazz) {
+			// The instantiator builds subclasses, which the clones should keep doing.
+			cloner = null;
+			template = null;
+		}
+
+		Set<String> changed = new HashSet<String>();
+		Set<String> repeated = new HashSet<String>();
+		for (Decorator<?> d : decorators)
+			if (d instanceof FieldDecorator && !changed.add(((FieldDecorator) d).getFieldName()))
+				repeated.add(((FieldDecorator) d).getFieldName());
+
+		List<FieldAccessor> constants = new ArrayList<FieldAccessor>();
+		List<Object> values = new ArrayList<Object>();
+		List<Decorator<?>> dynamic = new ArrayList<Decorator<?>>();
+		boolean barrier = false;
+		for (Decorator<?> d : decorators) {
+			if (!barrier && d.getClass() == FieldDecorator.class
+					&& !repeated.contains(((FieldDecorator) d).getFieldName())) {
+				FieldDecorator fd = (FieldDecorator) d;
+				fd.freeze();
+				FieldAccessor accessor = FieldAccessor.forField(clazz, fd.getFieldName());
+				if (template == null) {
+					constants.add(accessor);
+					values.add(fd.getValue());
+				} else
+					accessor.set(template, fd.getValue());
+				continue;
+			}
+			if (d.getClass() != FieldDecorator.class && d.getClass() != SequenceDecorator.class
+					&& d.getClass() != AssociationDecorator.class)
+				barrier = true;
+			dynamic.add(d);
+		}
+		return new Prototype(factory, template, cloner,
+				constants.toArray(new FieldAccessor[constants.size()]), values.toArray(),
+				dynamic.toArray(new Decorator<?>[dynamic.size()]));
+	}
+
+	/**
+	 * Resolves the <code>clone()</code> method of <strong>clazz</strong> if it implements
+	 * {@link Cloneable}: the public one if it overrides it or {@link Object#clone()} itself,
+	 * when the running Java allows it.
+	 * @param clazz
+	 * @return
+	 */
+	private static MethodHandle cloner(Class<?> clazz) {
+		if (!Cloneable.class.isAssignableFrom(clazz))
+			return null;
+		MethodType type = MethodType.methodType(Object.class, Object.class);
+		try {
+			Method clone = clazz.getMethod("clone");
+			clone.setAccessible(true);
+			return MethodHandles.lookup().unreflect(clone).asType(type);
+		} catch (Exception e) {
+			// There's no public clone().
+		}
+		try {
+			Method clone = Object.class.getDeclaredMethod("clone");
+			clone.setAccessible(true);
+			return MethodHandles.lookup().unreflect(clone).asType(type);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return A copy of the template or, if the objects can't be cloned, a new instance with
+	 * the constant values set.
+	 */
+	Object copy() {
+		if (cloner == null) {
+			Object o = factory.instantiate();
+			for (int i = 0; i < constants.length; i++)
+				constants[i].set(o, values[i]);
+			return o;
+		}
+		try {
+			return cloner.invokeExact(template);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Runs the dynamic decorators on <strong>o</strong>, a copy returned by {@link #copy()}.
+	 * @param o
+	 * @param context
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	void decorate(Object o, BuildContext context) {
+		for (Decorator d : dynamic)
+			d.decorate(o, context);
+	}
+}
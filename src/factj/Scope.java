@@ -0,0 +1,67 @@
+package factj;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the objects shared by associations while it lives. See
+ * {@link FactJ#scope(Runnable)}.
+ * @author Diego Aguir Selzlein
+ *
+ */
+public final class Scope {
+	private final ConcurrentMap<Object, Pool> pools = new ConcurrentHashMap<Object, Pool>();
+
+	Scope() {}
+
+	/**
+	 * Picks one of the objects of the pool identified by <strong>key</strong>. The first time
+	 * a pool is used, <strong>size</strong> objects are created for it using
+	 * <strong>creator</strong>. The next calls go through them in turns.
+	 * @param key Identifies the pool. Equal keys share the same pool.
+	 * @param size How many objects the pool has.
+	 * @param creator Creates each object of the pool.
+	 * @return
+	 */
+	public Object pick(Object key, int size, Supplier<?> creator) {
+		Pool pool = pools.get(key);
+		if (pool == null) {
+			pool = new Pool(size);
+			Pool existing = pools.putIfAbsent(key, pool);
+			if (existing != null)
+				pool = existing;
+		}
+		return pool.next(creator);
+	}
+
+	private static final class Pool {
+		private final int size;
+		private final AtomicInteger turn = new AtomicInteger();
+		private volatile Object[] objects;
+
+		Pool(int size) {
+			if (size < 1)
+				throw new IllegalArgumentException("Pool size must be at least 1: " + size);
+			this.size = size;
+		}
+
+		Object next(Supplier<?> creator) {
+			Object[] os = objects;
+			if (os == null)
+				synchronized (this) {
+					os = objects;
+					if (os == null) {
+						os = new Object[size];
+						for (int i = 0; i < size; i++)
+							os[i] = creator.get();
+						objects = os;
+					}
+				}
+			if (os.length == 1)
+				return os[0];
+			return os[(turn.getAndIncrement() & Integer.MAX_VALUE) % os.length];
+		}
+	}
+}
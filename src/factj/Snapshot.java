@@ -0,0 +1,832 @@
+package factj;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.MonthDay;
+import java.time.OffsetDateTime;
+import java.time.OffsetTime;
+import java.time.Period;
+import java.time.Year;
+import java.time.YearMonth;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+
+import factj.decorators.AssociationDecorator;
+import factj.decorators.DerivedDecorator;
+import factj.decorators.FieldDecorator;
+import factj.decorators.SequenceDecorator;
+
+/**
+ * The objects fabricated during a session, kept so a later session can get them back from
+ * a file instead of building them again. See {@link FactJ#snapshot(Path, Runnable)}.
+ * <p>
+ * A snapshot keeps every object built, in the order they were built, the objects
+ * referenced by them, which ones were saved and the next value of the sequences of the
+ * registered factories. Objects referenced by more than one object are restored as a single
+ * object, so associations shared through scopes or cycles are kept. Fields may hold other
+ * objects, primitives, their wrappers, Strings, enums, {@link Date}s, {@link BigDecimal}s,
+ * {@link BigInteger}s, the dates, times and amounts of <code>java.time</code> and
+ * collections and maps of those. Collections that can't be created again as they were, like
+ * unmodifiable ones, come back as lists, sets or maps of the JDK, and sorted ones lose their
+ * comparators. Fields holding other objects of the JDK are restored as
+ * <strong>null</strong>. Lazy associations can't be kept.
+ * <p>
+ * Files are only read back if the registered factories are defined as they were when the
+ * files were written, and the recorded Classes still have the same fields. The definitions
+ * are compared by content: fields, constant values, sequences, associations and
+ * dependencies. What custom decorators, {@link SequenceDecorator.Sequence}s and
+ * {@link DerivedDecorator.Derivation}s do can't be read, so they must implement
+ * {@link Keyed}, or taking and reading snapshots fails. Instantiators are not compared.
+ * @author Diego Aguir Selzlein
+ *
+ */
+public final class Snapshot {
+	private static final int MAGIC = 0x464a534e;
+	private static final int VERSION = 2;
+
+	private static final byte NULL = 0;
+	private static final byte REFERENCE = 1;
+	private static final byte STRING = 2;
+	private static final byte INT = 3;
+	private static final byte LONG = 4;
+	private static final byte DOUBLE = 5;
+	private static final byte FLOAT = 6;
+	private static final byte SHORT = 7;
+	private static final byte BYTE = 8;
+	private static final byte CHAR = 9;
+	private static final byte BOOLEAN = 10;
+	private static final byte ENUM = 11;
+	private static final byte DATE = 12;
+	private static final byte DECIMAL = 13;
+	private static final byte INTEGER = 14;
+	private static final byte COLLECTION = 15;
+	private static final byte MAP = 16;
+	private static final byte TEMPORAL = 17;
+	private static final byte SKIPPED = 18;
+
+	private static final Set<Class<?>> TEMPORALS = new HashSet<Class<?>>(Arrays.<Class<?>>asList(
+			Instant.class, LocalDate.class, LocalTime.class, LocalDateTime.class,
+			OffsetDateTime.class, OffsetTime.class, ZonedDateTime.class, Duration.class,
+			Period.class, Year.class, YearMonth.class, MonthDay.class));
+
+	/**
+	 * Implemented by custom decorators, {@link SequenceDecorator.Sequence}s and
+	 * {@link DerivedDecorator.Derivation}s of registered factories, so snapshots can tell
+	 * whether what they do changed since a file was written. Their Classes can't be used
+	 * for that, since the names of lambdas change from one run to another.
+	 * @author Diego Aguir Selzlein
+	 *
+	 */
+	public interface Keyed {
+		/**
+		 * @return A key that changes whenever what the object does changes, like a version
+		 * number.
+		 */
+		public String getSnapshotKey();
+	}
+
+	private final List<Object> objects = new ArrayList<Object>();
+	private final List<Factory> factories = new ArrayList<Factory>();
+	private final List<Object> created = new ArrayList<Object>();
+	private Map<String, Integer> sequences;
+	private long fingerprint;
+
+	private Snapshot() {
+	}
+
+	/**
+	 * Runs the <strong>session</strong> keeping every object fabricated by FactJ meanwhile,
+	 * from any thread, in the current {@link FactJContext}.
+	 * @param session
+	 * @return The snapshot of the session.
+	 */
+	public static Snapshot record(Runnable session) {
+		Snapshot snapshot = new Snapshot();
+		FactJContext factJ = FactJContext.current();
+		factJ.startRecording(snapshot);
+		try {
+			session.run();
+		} finally {
+			factJ.stopRecording(snapshot);
+		}
+		snapshot.sequences = sequences();
+		snapshot.fingerprint = fingerprint();
+		return snapshot;
+	}
+
+	synchronized void built(Object o, Factory factory) {
+		objects.add(o);
+		factories.add(factory);
+	}
+
+	synchronized void saved(Object o) {
+		created.add(o);
+	}
+
+	synchronized void saved(List<Object> objects) {
+		created.addAll(objects);
+	}
+
+	/**
+	 * @return Every object built, in the order they were built. Associated objects come
+	 * before the objects that reference them.
+	 */
+	public synchronized List<Object> getObjects() {
+		return Collections.unmodifiableList(new ArrayList<Object>(objects));
+	}
+
+	/**
+	 * @param clazz
+	 * @return The objects built of the given Class or its subclasses.
+	 */
+	public synchronized <T> List<T> getObjects(Class<T> clazz) {
+		List<T> result = new ArrayList<T>();
+		for (Object o : objects)
+			if (clazz.isInstance(o))
+				result.add(clazz.cast(o));
+		return result;
+	}
+
+	/**
+	 * @return The objects saved, in the order they were saved.
+	 */
+	public synchronized List<Object> getCreated() {
+		return Collections.unmodifiableList(new ArrayList<Object>(created));
+	}
+
+	/**
+	 * Brings the sequences of the registered factories back to where they were when the
+	 * snapshot was taken and saves the objects that were saved then, all at once.
+	 */
+	public void restore() {
+		FactJContext factJ = FactJContext.current();
+		for (Map.Entry<String, SequenceDecorator> s : sequenceDecorators().entrySet()) {
+			Integer next = sequences.get(s.getKey());
+			if (next != null)
+				factJ.setNextValue(s.getValue(), next);
+		}
+		List<Object> saves;
+		synchronized (this) {
+			saves = new ArrayList<Object>(created);
+		}
+		if (!saves.isEmpty())
+			factJ.saveAll(saves);
+	}
+
+	/**
+	 * Writes this snapshot to the <strong>file</strong>, replacing it if it exists.
+	 * @param file
+	 * @throws IOException
+	 * @throws IllegalStateException If an object holds a value that can't be kept.
+	 */
+	public synchronized void write(Path file) throws IOException {
+		List<Object> all = new ArrayList<Object>(objects);
+		Map<Object, Integer> indexes = new IdentityHashMap<Object, Integer>();
+		for (Object o : all)
+			if (!indexes.containsKey(o))
+				indexes.put(o, indexes.size());
+		if (indexes.size() < all.size()) {
+			all = new ArrayList<Object>(Collections.nCopies(indexes.size(), null));
+			for (Map.Entry<Object, Integer> e : indexes.entrySet())
+				all.set(e.getValue(), e.getKey());
+		}
+
+		Map<Class<?>, Integer> classes = new LinkedHashMap<Class<?>, Integer>();
+		Map<Class<?>, List<FieldAccessor>> layouts = new HashMap<Class<?>, List<FieldAccessor>>();
+		for (int i = 0; i < all.size(); i++) {
+			checkReference(all.get(i));
+			Class<?> c = all.get(i).getClass();
+			if (!classes.containsKey(c)) {
+				classes.put(c, classes.size());
+				layouts.put(c, layout(c));
+			}
+			for (FieldAccessor a : layouts.get(c))
+				collect(a.get(all.get(i)), indexes, all);
+		}
+
+		Map<Factory, Integer> factoryIndexes = new LinkedHashMap<Factory, Integer>();
+		for (Factory f : factories)
+			if (f != null && !factoryIndexes.containsKey(f))
+				factoryIndexes.put(f, factoryIndexes.size());
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				Files.newOutputStream(file)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(fingerprint);
+
+			out.writeInt(classes.size());
+			for (Class<?> c : classes.keySet()) {
+				writeString(out, c.getName());
+				List<FieldAccessor> layout = layouts.get(c);
+				out.writeInt(layout.size());
+				for (FieldAccessor a : layout) {
+					writeString(out, a.getField().getName());
+					writeString(out, a.getType().getName());
+				}
+			}
+
+			out.writeInt(factoryIndexes.size());
+			for (Factory f : factoryIndexes.keySet()) {
+				writeString(out, f.getClazz().getName());
+				writeString(out, f.getName() == null ? "" : f.getName());
+			}
+
+			out.writeInt(all.size());
+			for (int i = 0; i < all.size(); i++) {
+				out.writeInt(classes.get(all.get(i).getClass()));
+				Factory f = i < factories.size() ? factories.get(i) : null;
+				out.writeInt(f == null ? -1 : factoryIndexes.get(f));
+			}
+			for (Object o : all)
+				for (FieldAccessor a : layouts.get(o.getClass()))
+					writeValue(out, a.get(o), indexes);
+
+			out.writeInt(created.size());
+			for (Object o : created) {
+				Integer index = indexes.get(o);
+				out.writeInt(index == null ? -1 : index);
+			}
+
+			out.writeInt(sequences.size());
+			for (Map.Entry<String, Integer> s : sequences.entrySet()) {
+				writeString(out, s.getKey());
+				out.writeInt(s.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Reads a snapshot written by {@link #write(Path)}, mapping the file into memory.
+	 * @param file
+	 * @return The snapshot or <strong>null</strong> if the file doesn't exist, is truncated
+	 * or corrupted or was written for other factories or Classes.
+	 * @throws IOException
+	 */
+	public static Snapshot read(Path file) throws IOException {
+		ByteBuffer in;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+		try {
+			return read(in);
+		} catch (BufferUnderflowException | IndexOutOfBoundsException
+				| IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static Snapshot read(ByteBuffer in) {
+		if (in.remaining() < 16 || in.getInt() != MAGIC || in.getInt() != VERSION
+				|| in.getLong() != fingerprint())
+			return null;
+
+		Snapshot snapshot = new Snapshot();
+		snapshot.fingerprint = fingerprint();
+		ClassLoader loader = Snapshot.class.getClassLoader();
+		List<Class<?>> classes = new ArrayList<Class<?>>();
+		List<List<FieldAccessor>> layouts = new ArrayList<List<FieldAccessor>>();
+		for (int i = in.getInt(); i > 0; i--) {
+			Class<?> c;
+			try {
+				c = Class.forName(readString(in), false, loader);
+			} catch (ClassNotFoundException e) {
+				return null;
+			}
+			List<FieldAccessor> layout = layout(c);
+			int fields = readSize(in);
+			if (fields != layout.size())
+				return null;
+			for (FieldAccessor a : layout)
+				if (!readString(in).equals(a.getField().getName())
+						|| !readString(in).equals(a.getType().getName()))
+					return null;
+			classes.add(c);
+			layouts.add(layout);
+		}
+
+		List<Factory> factories = new ArrayList<Factory>();
+		for (int i = in.getInt(); i > 0; i--) {
+			String clazz = readString(in);
+			String name = readString(in);
+			Factory found = null;
+			for (Factory f : FactJContext.current().getFactories())
+				if (f.getClazz().getName().equals(clazz) && name.equals(
+						f.getName() == null ? "" : f.getName()))
+					found = f;
+			factories.add(found);
+		}
+
+		int count = readSize(in);
+		int[] classOf = new int[count];
+		Object[] all = new Object[count];
+		for (int i = 0; i < count; i++) {
+			classOf[i] = in.getInt();
+			int factory = in.getInt();
+			Class<?> c = classes.get(classOf[i]);
+			Object o = factory < 0 || factories.get(factory) == null ? null
+					: factories.get(factory).instantiate();
+			all[i] = o != null && o.getClass() == c ? o : Instantiators.forClass(c).get();
+		}
+		for (int i = 0; i < count; i++)
+			for (FieldAccessor a : layouts.get(classOf[i]))
+				a.set(all[i], readValue(in, all, loader));
+
+		for (Object o : all)
+			snapshot.objects.add(o);
+		for (int i = in.getInt(); i > 0; i--) {
+			int index = in.getInt();
+			if (index >= 0)
+				snapshot.created.add(all[index]);
+		}
+		snapshot.sequences = new TreeMap<String, Integer>();
+		for (int i = in.getInt(); i > 0; i--)
+			snapshot.sequences.put(readString(in), in.getInt());
+		return snapshot;
+	}
+
+	/**
+	 * @return The fields of <strong>clazz</strong> kept in snapshots, from its topmost
+	 * superclass down.
+	 */
+	private static List<FieldAccessor> layout(Class<?> clazz) {
+		List<Class<?>> hierarchy = new ArrayList<Class<?>>();
+		for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass())
+			hierarchy.add(0, c);
+		Map<String, FieldAccessor> fields = new LinkedHashMap<String, FieldAccessor>();
+		for (Class<?> c : hierarchy)
+			for (Field f : c.getDeclaredFields())
+				if (!Modifier.isStatic(f.getModifiers()) && !Modifier.isTransient(f.getModifiers())
+						&& !f.isSynthetic() && !fields.containsKey(f.getName()))
+					fields.put(f.getName(), FieldAccessor.forField(clazz, f.getName()));
+		return new ArrayList<FieldAccessor>(fields.values());
+	}
+
+	private static byte tagOf(Object value) {
+		if (value == null)
+			return NULL;
+		if (value instanceof String)
+			return STRING;
+		if (value instanceof Integer)
+			return INT;
+		if (value instanceof Long)
+			return LONG;
+		if (value instanceof Double)
+			return DOUBLE;
+		if (value instanceof Float)
+			return FLOAT;
+		if (value instanceof Short)
+			return SHORT;
+		if (value instanceof Byte)
+			return BYTE;
+		if (value instanceof Character)
+			return CHAR;
+		if (value instanceof Boolean)
+			return BOOLEAN;
+		if (value instanceof Enum)
+			return ENUM;
+		if (value.getClass() == Date.class)
+			return DATE;
+		if (value instanceof BigDecimal)
+			return DECIMAL;
+		if (value instanceof BigInteger)
+			return INTEGER;
+		Class<?> c = value.getClass();
+		if (!c.getName().startsWith("java.") && !c.getName().startsWith("javax."))
+			return REFERENCE;
+		if (value instanceof Collection)
+			return COLLECTION;
+		if (value instanceof Map)
+			return MAP;
+		if (TEMPORALS.contains(c))
+			return TEMPORAL;
+		return SKIPPED;
+	}
+
+	/**
+	 * Adds the objects referenced by <strong>value</strong>, directly or through
+	 * collections, that are not in <strong>all</strong> yet.
+	 */
+	private static void collect(Object value, Map<Object, Integer> indexes, List<Object> all) {
+		switch (tagOf(value)) {
+		case REFERENCE:
+			if (!indexes.containsKey(value)) {
+				checkReference(value);
+				indexes.put(value, all.size());
+				all.add(value);
+			}
+			break;
+		case COLLECTION:
+			for (Object element : (Collection<?>) value)
+				collect(element, indexes, all);
+			break;
+		case MAP:
+			for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+				collect(e.getKey(), indexes, all);
+				collect(e.getValue(), indexes, all);
+			}
+			break;
+		}
+	}
+
+	private static void checkReference(Object value) {
+		Class<?> c = value.getClass();
+		if (value instanceof Supplier || Proxy.isProxyClass(c) || c.isArray())
+			throw new IllegalStateException("A " + c.getName() + " can't be kept in a snapshot");
+	}
+
+	/**
+	 * @return The Class a collection or map is created again with: its own if it can be
+	 * created empty or a list, set or map of the JDK.
+	 */
+	private static Class<?> rebuiltAs(Object value) {
+		try {
+			if (Modifier.isPublic(value.getClass().getModifiers())) {
+				value.getClass().getConstructor();
+				return value.getClass();
+			}
+		} catch (NoSuchMethodException e) {
+			// It is created as one of the JDK.
+		}
+		if (value instanceof SortedSet)
+			return TreeSet.class;
+		if (value instanceof Set)
+			return LinkedHashSet.class;
+		if (value instanceof SortedMap)
+			return TreeMap.class;
+		if (value instanceof Map)
+			return LinkedHashMap.class;
+		return ArrayList.class;
+	}
+
+	private static void writeValue(DataOutputStream out, Object value,
+			Map<Object, Integer> indexes) throws IOException {
+		byte tag = tagOf(value);
+		if (tag == SKIPPED)
+			tag = NULL;
+		out.writeByte(tag);
+		switch (tag) {
+		case COLLECTION:
+			writeString(out, rebuiltAs(value).getName());
+			out.writeInt(((Collection<?>) value).size());
+			for (Object element : (Collection<?>) value)
+				writeValue(out, element, indexes);
+			break;
+		case MAP:
+			writeString(out, rebuiltAs(value).getName());
+			out.writeInt(((Map<?, ?>) value).size());
+			for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+				writeValue(out, e.getKey(), indexes);
+				writeValue(out, e.getValue(), indexes);
+			}
+			break;
+		case TEMPORAL:
+			writeString(out, value.getClass().getName());
+			writeString(out, value.toString());
+			break;
+		case REFERENCE:
+			out.writeInt(indexes.get(value));
+			break;
+		case STRING:
+			writeString(out, (String) value);
+			break;
+		case INT:
+			out.writeInt((Integer) value);
+			break;
+		case LONG:
+			out.writeLong((Long) value);
+			break;
+		case DOUBLE:
+			out.writeDouble((Double) value);
+			break;
+		case FLOAT:
+			out.writeFloat((Float) value);
+			break;
+		case SHORT:
+			out.writeShort((Short) value);
+			break;
+		case BYTE:
+			out.writeByte((Byte) value);
+			break;
+		case CHAR:
+			out.writeChar((Character) value);
+			break;
+		case BOOLEAN:
+			out.writeBoolean((Boolean) value);
+			break;
+		case ENUM:
+			writeString(out, ((Enum<?>) value).getDeclaringClass().getName());
+			writeString(out, ((Enum<?>) value).name());
+			break;
+		case DATE:
+			out.writeLong(((Date) value).getTime());
+			break;
+		case DECIMAL:
+		case INTEGER:
+			writeString(out, value.toString());
+			break;
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Object readValue(ByteBuffer in, Object[] all, ClassLoader loader) {
+		byte tag = in.get();
+		switch (tag) {
+		case NULL:
+			return null;
+		case REFERENCE:
+			return all[in.getInt()];
+		case STRING:
+			return readString(in);
+		case INT:
+			return in.getInt();
+		case LONG:
+			return in.getLong();
+		case DOUBLE:
+			return in.getDouble();
+		case FLOAT:
+			return in.getFloat();
+		case SHORT:
+			return in.getShort();
+		case BYTE:
+			return in.get();
+		case CHAR:
+			return in.getChar();
+		case BOOLEAN:
+			return in.get() != 0;
+		case ENUM:
+			try {
+				Class type = Class.forName(readString(in), false, loader);
+				return Enum.valueOf(type, readString(in));
+			} catch (ClassNotFoundException e) {
+				throw new IllegalArgumentException("The snapshot references a missing enum", e);
+			}
+		case DATE:
+			return new Date(in.getLong());
+		case DECIMAL:
+			return new BigDecimal(readString(in));
+		case INTEGER:
+			return new BigInteger(readString(in));
+		case COLLECTION:
+			Collection collection = (Collection) create(readString(in), loader);
+			for (int i = readSize(in); i > 0; i--)
+				collection.add(readValue(in, all, loader));
+			return collection;
+		case MAP:
+			Map map = (Map) create(readString(in), loader);
+			for (int i = readSize(in); i > 0; i--)
+				map.put(readValue(in, all, loader), readValue(in, all, loader));
+			return map;
+		case TEMPORAL:
+			try {
+				Class<?> type = Class.forName(readString(in), false, loader);
+				if (!TEMPORALS.contains(type))
+					throw new IllegalArgumentException("Not a date or time: " + type.getName());
+				return type.getMethod("parse", CharSequence.class).invoke(null, readString(in));
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalArgumentException("The snapshot is corrupted", e);
+			}
+		default:
+			throw new IllegalArgumentException("The snapshot is corrupted");
+		}
+	}
+
+	private static Object create(String clazz, ClassLoader loader) {
+		try {
+			return Class.forName(clazz, false, loader).getConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalArgumentException("The snapshot is corrupted", e);
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads a size, checking it against what is left of the file so a corrupted one doesn't
+	 * make it allocate more than it holds.
+	 */
+	private static int readSize(ByteBuffer in) {
+		int size = in.getInt();
+		if (size < 0 || size > in.remaining())
+			throw new IllegalArgumentException("The snapshot is corrupted");
+		return size;
+	}
+
+	private static String readString(ByteBuffer in) {
+		byte[] bytes = new byte[readSize(in)];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return The sequences of the registered factories, including the ones given to their
+	 * associations, by a key that identifies them across sessions.
+	 */
+	private static Map<String, SequenceDecorator> sequenceDecorators() {
+		Map<String, SequenceDecorator> result = new TreeMap<String, SequenceDecorator>();
+		for (Factory f : FactJContext.current().getFactories())
+			sequenceDecorators(key(f), f.decorators(), result);
+		return result;
+	}
+
+	private static void sequenceDecorators(String key, Decorator<?>[] decorators,
+			Map<String, SequenceDecorator> result) {
+		if (decorators == null)
+			return;
+		for (int i = 0; i < decorators.length; i++)
+			if (decorators[i] instanceof SequenceDecorator)
+				result.put(key + "#" + i, (SequenceDecorator) decorators[i]);
+			else if (decorators[i] instanceof AssociationDecorator)
+				sequenceDecorators(key + "#" + i,
+						((AssociationDecorator) decorators[i]).getDecorators(), result);
+	}
+
+	private static Map<String, Integer> sequences() {
+		FactJContext factJ = FactJContext.current();
+		Map<String, Integer> result = new TreeMap<String, Integer>();
+		for (Map.Entry<String, SequenceDecorator> s : sequenceDecorators().entrySet())
+			result.put(s.getKey(), factJ.getNextValue(s.getValue()));
+		return result;
+	}
+
+	private static String key(Factory f) {
+		return f.getClazz().getName() + "/" + (f.getName() == null ? "" : f.getName());
+	}
+
+	/**
+	 * @return A hash of the definitions of the registered factories.
+	 * @throws IllegalStateException If a factory has a custom decorator, sequence or
+	 * derivation that is not {@link Keyed}.
+	 */
+	static long fingerprint() {
+		Map<String, Factory> sorted = new TreeMap<String, Factory>();
+		for (Factory f : FactJContext.current().getFactories())
+			sorted.put(key(f), f);
+		StringBuilder definitions = new StringBuilder();
+		for (Map.Entry<String, Factory> f : sorted.entrySet()) {
+			definitions.append(f.getKey()).append('{');
+			describe(definitions, f.getValue(), f.getValue().decorators());
+			definitions.append('}');
+		}
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < definitions.length(); i++) {
+			hash ^= definitions.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	private static void describe(StringBuilder out, Factory factory, Decorator<?>[] decorators) {
+		if (decorators == null)
+			return;
+		for (Decorator<?> d : decorators) {
+			Class<?> c = d.getClass();
+			if (d instanceof Keyed)
+				out.append("keyed:").append(((Keyed) d).getSnapshotKey());
+			else if (c == FieldDecorator.class) {
+				out.append("field:").append(((FieldDecorator) d).getFieldName()).append('=');
+				describeValue(out, ((FieldDecorator) d).getValue(),
+						new IdentityHashMap<Object, Integer>());
+			} else if (c == SequenceDecorator.class) {
+				SequenceDecorator s = (SequenceDecorator) d;
+				out.append("sequence:").append(s.getFieldName()).append(',')
+						.append(s.getInitialValue()).append(',');
+				if (s.getSequence() != null)
+					out.append(keyOf(factory, s.getSequence()));
+			} else if (c == AssociationDecorator.class) {
+				AssociationDecorator a = (AssociationDecorator) d;
+				out.append("association:").append(a.getFieldName()).append('(')
+						.append(a.getClazz() == null ? "" : a.getClazz().getName()).append(',')
+						.append(a.getFactoryName()).append(',').append(a.isLazy()).append(',')
+						.append(a.isPersist()).append(',').append(a.getPoolSize()).append(',');
+				describe(out, factory, a.getDecorators());
+				out.append(')');
+			} else if (c == DerivedDecorator.class) {
+				DerivedDecorator derived = (DerivedDecorator) d;
+				out.append("derived:").append(derived.getFieldName())
+						.append(Arrays.toString(derived.getDependencies())).append(',')
+						.append(keyOf(factory, derived.getDerivation()));
+			} else
+				keyOf(factory, d);
+			out.append(';');
+		}
+	}
+
+	private static String keyOf(Factory factory, Object o) {
+		if (o instanceof Keyed)
+			return ((Keyed) o).getSnapshotKey();
+		throw new IllegalStateException("Snapshots can't tell whether " + o.getClass().getName()
+				+ " of " + FactJContext.describe(factory) + " changed. Make it implement "
+				+ Keyed.class.getName().replace('$', '.') + ".");
+	}
+
+	/**
+	 * Describes a constant value by its content, following the fields of the objects it
+	 * references. Objects met again are described by the order they were first met.
+	 */
+	private static void describeValue(StringBuilder out, Object value,
+			Map<Object, Integer> seen) {
+		byte tag = tagOf(value);
+		switch (tag) {
+		case NULL:
+			out.append("null");
+			return;
+		case ENUM:
+			out.append(((Enum<?>) value).getDeclaringClass().getName()).append('.')
+					.append(((Enum<?>) value).name());
+			return;
+		case DATE:
+			out.append("Date:").append(((Date) value).getTime());
+			return;
+		case COLLECTION:
+			out.append(value.getClass().getName()).append('[');
+			for (Object element : (Collection<?>) value) {
+				describeValue(out, element, seen);
+				out.append(',');
+			}
+			out.append(']');
+			return;
+		case MAP:
+			out.append(value.getClass().getName()).append('[');
+			for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+				describeValue(out, e.getKey(), seen);
+				out.append('=');
+				describeValue(out, e.getValue(), seen);
+				out.append(',');
+			}
+			out.append(']');
+			return;
+		case REFERENCE:
+			break;
+		default:
+			out.append(value.getClass().getSimpleName()).append(':').append(value);
+			return;
+		}
+		Class<?> c = value.getClass();
+		if (c.isArray()) {
+			out.append(c.getName()).append('[');
+			for (int i = 0; i < Array.getLength(value); i++) {
+				describeValue(out, Array.get(value, i), seen);
+				out.append(',');
+			}
+			out.append(']');
+			return;
+		}
+		Integer index = seen.get(value);
+		if (index != null) {
+			out.append('@').append(index);
+			return;
+		}
+		seen.put(value, seen.size());
+		out.append(c.getName()).append('{');
+		for (FieldAccessor a : layout(c)) {
+			out.append(a.getField().getName()).append('=');
+			describeValue(out, a.get(value), seen);
+			out.append(',');
+		}
+		out.append('}');
+	}
+}
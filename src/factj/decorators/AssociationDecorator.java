@@ -1,12 +1,26 @@
 package factj.decorators;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+import factj.BuildContext;
 import factj.Decorator;
 import factj.FactJ;
 import factj.Factory;
+import factj.FieldAccessor;
+import factj.Scope;
 
 /**
  * This {@link FieldDecorator} changes a field in an object using the
- * {@link FactJ#create(Class)} method.
+ * {@link FactJ#create(Class)} method. By default, a new object is created for each object
+ * built, but objects may be shared through {@link #reuse()} or {@link #pool(int)}, or built
+ * only when used through {@link #lazy()}.
  * @author Diego Aguir Selzlein
  *
  */
@@ -14,6 +28,9 @@ public class AssociationDecorator extends FieldDecorator {
 	protected Class<?> clazz;
 	protected String factoryName;
 	protected Decorator<?>[] decorators;
+	protected int poolSize;
+	protected boolean persist = true;
+	protected boolean lazy;
 
 	/**
 	 * Will cause the field to receive the object built by the factory that has
@@ -79,14 +96,238 @@ public class AssociationDecorator extends FieldDecorator {
 		this.decorators = decorators;
 	}
 
+	public Class<?> getClazz() {
+		return clazz;
+	}
+
+	public String getFactoryName() {
+		return factoryName;
+	}
+
+	public Decorator<?>[] getDecorators() {
+		return decorators;
+	}
+
+	public boolean isLazy() {
+		return lazy;
+	}
+
+	/**
+	 * @return How many associated objects are shared or zero if each object built gets its
+	 * own. See {@link #pool(int)}.
+	 */
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	/**
+	 * @return <strong>false</strong> if the associated objects are only built. See
+	 * {@link #buildOnly()}.
+	 */
+	public boolean isPersist() {
+		return persist;
+	}
+
+	/**
+	 * Makes every object built in the same {@link Scope} receive the same associated object.
+	 * Same as <code>pool(1)</code>.
+	 * @return This decorator.
+	 */
+	public AssociationDecorator reuse() {
+		return pool(1);
+	}
+
+	/**
+	 * Makes the objects built in the same {@link Scope} receive, in turns, one of
+	 * <strong>size</strong> associated objects created the first time they're needed.
+	 * Associations with the same Class, factory name, decorators and size share the same
+	 * pool. Plain {@link FieldDecorator}s given to the associations are compared by their
+	 * field and value, and plain associations by their options; any other decorator,
+	 * including a {@link SequenceDecorator}, must be the same instance.
+	 * See {@link FactJ#scope(Runnable)}.
+	 * @param size How many objects will be shared.
+	 * @return This decorator.
+	 */
+	public AssociationDecorator pool(int size) {
+		if (size < 1)
+			throw new IllegalArgumentException("Pool size must be at least 1: " + size);
+		poolSize = size;
+		return this;
+	}
+
+	/**
+	 * Makes the associated objects be only built, never saved.
+	 * @return This decorator.
+	 */
+	public AssociationDecorator buildOnly() {
+		persist = false;
+		return this;
+	}
+
+	/**
+	 * Makes the associated object be built only when it's first used. The field must be
+	 * either:
+	 * <ul>
+	 * <li>an interface, which will receive a proxy that builds the object when one of its
+	 * methods gets called;</li>
+	 * <li>a {@link Supplier}, which will build the object when {@link Supplier#get()} is
+	 * called. The Class built is the type argument of the field, like
+	 * <code>Supplier&lt;Address&gt;</code>, unless another one is given.</li>
+	 * </ul>
+	 * If the owner gets saved, the associated object is built and saved before it.
+	 * @return This decorator.
+	 */
+	public AssociationDecorator lazy() {
+		lazy = true;
+		return this;
+	}
+
 	@Override
-	public Object getValue() {
-		if (clazz == null)
+	public Object getValue(Object target, final BuildContext context) {
+		if (lazy)
+			return lazyValue(target, context);
+		Class<?> c = clazz;
+		if (c == null)
+			c = getAccessor(target.getClass()).getType();
+		return resolve(c, context);
+	}
+
+	private Object lazyValue(Object target, final BuildContext context) {
+		FieldAccessor accessor = getAccessor(target.getClass());
+		Class<?> fieldType = accessor.getType();
+		boolean supplier = fieldType == Supplier.class;
+		if (!supplier && !fieldType.isInterface())
+			throw new IllegalStateException("Lazy association '" + fieldName + "' of "
+					+ target.getClass().getName() + " must be an interface or a Supplier");
+		Class<?> c = clazz;
+		if (c == null)
+			c = supplier ? typeArgument(accessor) : fieldType;
+
+		final Class<?> type = c;
+		Lazy value = new Lazy(type, new Supplier<Object>() {
+			@Override
+			public Object get() {
+				return resolve(type, context);
+			}
+		});
+		if (persist && context != null)
+			context.defer(value);
+		if (supplier)
+			return value;
+		return Proxy.newProxyInstance(fieldType.getClassLoader(), new Class<?>[] { fieldType },
+				value);
+	}
+
+	private Class<?> typeArgument(FieldAccessor accessor) {
+		Type type = accessor.getField().getGenericType();
+		if (type instanceof ParameterizedType) {
+			Type argument = ((ParameterizedType) type).getActualTypeArguments()[0];
+			if (argument instanceof Class)
+				return (Class<?>) argument;
+			if (argument instanceof ParameterizedType)
+				return (Class<?>) ((ParameterizedType) argument).getRawType();
+		}
+		throw new IllegalStateException("Can't tell which Class lazy association '" + fieldName
+				+ "' must build. Give it a Class.");
+	}
+
+	private Object resolve(final Class<?> c, final BuildContext context) {
+		if (poolSize == 0)
+			return newValue(c, context);
+
+		Scope scope = context == null ? FactJ.currentScope() : context.getScope();
+		Object key = Arrays.asList(c, factoryName == null ? "" : factoryName,
+				poolKey(decorators), persist, poolSize);
+		return scope.pick(key, poolSize, new Supplier<Object>() {
+			@Override
+			public Object get() {
+				return newValue(c, context);
+			}
+		});
+	}
+
+	/**
+	 * @return What tells the <strong>decorators</strong> apart when picking a pool: the
+	 * field and value of plain {@link FieldDecorator}s, the options of plain
+	 * {@link AssociationDecorator}s and the other decorators themselves.
+	 */
+	private static Object poolKey(Decorator<?>[] decorators) {
+		if (decorators == null)
+			return null;
+		Object[] key = new Object[decorators.length];
+		for (int i = 0; i < key.length; i++) {
+			Decorator<?> d = decorators[i];
+			if (d.getClass() == FieldDecorator.class)
+				key[i] = Arrays.asList(((FieldDecorator) d).getFieldName(),
+						((FieldDecorator) d).getValue());
+			else if (d.getClass() == AssociationDecorator.class) {
+				AssociationDecorator a = (AssociationDecorator) d;
+				key[i] = Arrays.asList(a.fieldName, a.clazz, a.factoryName,
+						poolKey(a.decorators), a.persist, a.poolSize, a.lazy);
+			} else
+				key[i] = d;
+		}
+		return Arrays.asList(key);
+	}
+
+	/**
+	 * The value of a lazy association. It's built once, the first time it's needed.
+	 * <code>equals</code> and <code>hashCode</code> of the proxy compare the proxy itself and
+	 * <code>toString</code> doesn't build the object, so the proxy may be kept in collections
+	 * and logged without building it.
+	 */
+	private static final class Lazy implements Supplier<Object>, InvocationHandler {
+		private final Class<?> type;
+		private final Supplier<Object> builder;
+		private volatile Object value;
+		private volatile boolean built;
+
+		Lazy(Class<?> type, Supplier<Object> builder) {
+			this.type = type;
+			this.builder = builder;
+		}
+
+		@Override
+		public Object get() {
+			if (!built)
+				synchronized (this) {
+					if (!built) {
+						value = builder.get();
+						built = true;
+					}
+				}
+			return value;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (method.getDeclaringClass() == Object.class)
+				switch (method.getName()) {
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "toString":
+					return built ? String.valueOf(value)
+							: "Lazy " + type.getName() + " (not built yet)";
+				}
+			Object o = get();
+			if (o == null)
+				throw new IllegalStateException("Lazy association built nothing. Is there a "
+						+ "factory for it?");
 			try {
-				clazz = getField(fieldName, object.getClass()).getType();
-			} catch (Exception e) {
-				throw new RuntimeException(e);
+				return method.invoke(o, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
 			}
-		return FactJ.create(clazz, factoryName, decorators);
+		}
+	}
+
+	private Object newValue(Class<?> c, BuildContext context) {
+		if (context == null)
+			return persist ? FactJ.create(c, factoryName, decorators)
+					: FactJ.build(c, factoryName, decorators);
+		return persist ? context.create(c, factoryName, decorators)
+				: context.build(c, factoryName, decorators);
 	}
 }
@@ -0,0 +1,82 @@
+package factj.decorators;
+
+import factj.BuildContext;
+import factj.FieldAccessor;
+
+/**
+ * This {@link FieldDecorator} sets a value computed from other fields of the object, like
+ * an email made of the name and the id:
+ * <pre>
+ * derived("email", new Derivation() {
+ *     public Object derive(Object[] values) {
+ *         return values[0] + "." + values[1] + "@company.com";
+ *     }
+ * }, "name", "id")
+ * </pre>
+ * When it is one of the decorators of a {@link factj.Factory}, it runs at its position,
+ * unless one of its dependencies is set by a {@link FieldDecorator} that comes after it,
+ * like a sequence, an association or another derived field: then it runs right after that
+ * decorator. So the decorators that follow it can read the derived value. Custom
+ * decorators are not known to set any field, so one that sets a dependency must be
+ * declared before the derived field. A factory whose derived fields depend on each other
+ * in a cycle fails at its first build.
+ * @author Diego Aguir Selzlein
+ *
+ */
+public class DerivedDecorator extends FieldDecorator {
+	/**
+	 * Computes the value of a derived field.
+	 * @author Diego Aguir Selzlein
+	 */
+	public interface Derivation {
+		/**
+		 * @param values The values of the dependencies, in the order they were declared.
+		 * @return The value of the field.
+		 */
+		public Object derive(Object[] values);
+	}
+	protected final Derivation derivation;
+	protected final String[] dependencies;
+
+	/**
+	 * @param fieldName The name of the field to be derived.
+	 * @param derivation Computes the value of the field.
+	 * @param dependencies The names of the fields the value is computed from.
+	 */
+	public DerivedDecorator(String fieldName, Derivation derivation, String ... dependencies) {
+		super(fieldName);
+		this.derivation = derivation;
+		this.dependencies = dependencies == null ? new String[0] : dependencies.clone();
+	}
+
+	public Derivation getDerivation() {
+		return derivation;
+	}
+
+	/**
+	 * @return The names of the fields the value is computed from. The array must not be
+	 * changed.
+	 */
+	public String[] getDependencies() {
+		return dependencies;
+	}
+
+	/**
+	 * @param values The values of the dependencies, in the order they were declared.
+	 * @return The value of the field.
+	 */
+	public Object derive(Object[] values) {
+		return derivation.derive(values);
+	}
+
+	/**
+	 * Reads the dependencies from the <strong>target</strong> and derives the value.
+	 */
+	@Override
+	public Object getValue(Object target, BuildContext context) {
+		Object[] values = new Object[dependencies.length];
+		for (int i = 0; i < values.length; i++)
+			values[i] = FieldAccessor.forField(target.getClass(), dependencies[i]).get(target);
+		return derive(values);
+	}
+}
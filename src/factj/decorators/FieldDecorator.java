@@ -2,10 +2,15 @@ package factj.decorators;
 
 import java.lang.reflect.Field;
 
+import factj.BuildContext;
 import factj.Decorator;
+import factj.FieldAccessor;
 
 /**
  * This {@link Decorator} changes a field in an object setting the given value on it.
+ * The same instance may be used to build many objects at the same time, so subclasses must
+ * not keep the object being built in their fields. Override
+ * {@link #getValue(Object, BuildContext)} if the value depends on it.
  * @author Diego Aguir Selzlein
  *
  */
@@ -13,7 +18,8 @@ public class FieldDecorator implements Decorator<Object> {
 	protected String fieldName;
 	protected Object value;
 
-	protected Object object;
+	private volatile FieldAccessor accessor;
+	private volatile boolean frozen;
 
 	/**
 	 * @param fieldName The name of the field that will be changed.
@@ -35,28 +41,91 @@ public class FieldDecorator implements Decorator<Object> {
 		return fieldName;
 	}
 
+	/**
+	 * @param fieldName
+	 * @throws IllegalStateException If the decorator was frozen (see {@link #freeze()}).
+	 */
 	public void setFieldName(String fieldName) {
+		checkNotFrozen();
 		this.fieldName = fieldName;
+		accessor = null;
 	}
 
 	public Object getValue() {
 		return value;
 	}
 
+	/**
+	 * @return <strong>true</strong> if the field always receives the same {@link #value},
+	 * which happens when this decorator is not a subclass. Factories may set constant values
+	 * in ways that skip the decorator itself.
+	 */
+	public boolean isConstant() {
+		return getClass() == FieldDecorator.class;
+	}
+
+	/**
+	 * Returns the value the field of <strong>target</strong> will receive. By default, it
+	 * is the one returned by {@link #getValue()}.
+	 * @param target The object being built.
+	 * @param context The context of the build. It may be <strong>null</strong> when the
+	 * decorator is used outside of FactJ.
+	 * @return
+	 */
+	public Object getValue(Object target, BuildContext context) {
+		return getValue();
+	}
+
+	/**
+	 * @param value
+	 * @throws IllegalStateException If the decorator was frozen (see {@link #freeze()}).
+	 */
 	public void setValue(Object value) {
+		checkNotFrozen();
 		this.value = value;
 	}
 
+	/**
+	 * Called by factories that copy the field name and {@link #value} of a constant decorator
+	 * (see {@link #isConstant()}) into compiled chains or templates. Changing the decorator
+	 * after that would be silently ignored by them, so it fails instead.
+	 */
+	public void freeze() {
+		frozen = true;
+	}
+
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	private void checkNotFrozen() {
+		if (frozen)
+			throw new IllegalStateException("The decorator of " + fieldName + " is already "
+					+ "used by a factory that copied its value; create a new decorator instead");
+	}
+
 	@Override
 	public void decorate(Object object) {
-		this.object = object;
-		try {
-			Field f = getField(getFieldName(), object.getClass());
-			f.setAccessible(true);
-			f.set(object, getValue());
-		} catch (Exception e) {
-			throw new RuntimeException(e);
-		}
+		decorate(object, null);
+	}
+
+	@Override
+	public void decorate(Object object, BuildContext context) {
+		getAccessor(object.getClass()).set(object, getValue(object, context));
+	}
+
+	/**
+	 * Returns the {@link FieldAccessor} of {@link #fieldName} in the given
+	 * <strong>clazz</strong>. The last one resolved is kept, so building objects of the
+	 * same Class again doesn't even need to look it up.
+	 * @param clazz
+	 * @return
+	 */
+	protected FieldAccessor getAccessor(Class<?> clazz) {
+		FieldAccessor a = accessor;
+		if (a == null || a.getOwner() != clazz)
+			accessor = a = FieldAccessor.forField(clazz, fieldName);
+		return a;
 	}
 
 	/**
@@ -69,14 +138,11 @@ public class FieldDecorator implements Decorator<Object> {
 	 */
 	protected Field getField(String fieldName, Class<?> clazz) throws NoSuchFieldException {
 		try {
-			return clazz.getDeclaredField(fieldName);
-		} catch (NoSuchFieldException e) {
-			if (clazz.getSuperclass() != null)
-				return getField(fieldName, clazz.getSuperclass());
-			else
-				throw e;
-		} catch (SecurityException e) {
-			throw new RuntimeException(e);
+			return FieldAccessor.forField(clazz, fieldName).getField();
+		} catch (IllegalArgumentException e) {
+			NoSuchFieldException nsfe = new NoSuchFieldException(e.getMessage());
+			nsfe.initCause(e);
+			throw nsfe;
 		}
 	}
 }
@@ -0,0 +1,78 @@
+package factj.decorators;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import factj.Decorator;
+import factj.FieldAccessor;
+
+/**
+ * Sets values to fields of the object being built in place of the ones its factory would
+ * set, like <code>FactJ.build(Person.class, with("name", "X").and("email", "y"))</code>.
+ * The decorators of the factory that set the overridden fields are not called at all, so an
+ * overridden sequence gives no value and an overridden association builds no object.
+ * <p>
+ * The overridden values are set before the other decorators of the factory run, so they
+ * can use them. If the factory has custom decorators, the values are set again after them,
+ * so the overridden fields keep the values given even if a custom decorator sets them too.
+ * The other decorators run one by one, whatever the {@link factj.Factory.Strategy} of the
+ * factory. When given to FactJ along with other decorators, only the first
+ * {@link Overrides} is merged with the factory; the others are applied after the build,
+ * like any other decorator.
+ * @author Diego Aguir Selzlein
+ *
+ */
+public final class Overrides implements Decorator<Object> {
+	private final List<String> fields = new ArrayList<String>(4);
+	private final List<String> view = Collections.unmodifiableList(fields);
+	private final List<Object> values = new ArrayList<Object>(4);
+
+	/**
+	 * @param fieldName The name of the field to be overridden.
+	 * @param value The value the field will get.
+	 */
+	public Overrides(String fieldName, Object value) {
+		and(fieldName, value);
+	}
+
+	/**
+	 * Overrides another field. Overriding the same field again replaces its value.
+	 * @param fieldName The name of the field to be overridden.
+	 * @param value The value the field will get.
+	 * @return These overrides.
+	 */
+	public Overrides and(String fieldName, Object value) {
+		int i = fields.indexOf(fieldName);
+		if (i < 0) {
+			fields.add(fieldName);
+			values.add(value);
+		} else
+			values.set(i, value);
+		return this;
+	}
+
+	/**
+	 * @return The names of the overridden fields, in the order they were given.
+	 */
+	public List<String> getFields() {
+		return view;
+	}
+
+	/**
+	 * @param index
+	 * @return The value of the field at the <strong>index</strong> of {@link #getFields()}.
+	 */
+	public Object getValue(int index) {
+		return values.get(index);
+	}
+
+	/**
+	 * Sets the values to the fields of an object that was already built.
+	 */
+	@Override
+	public void decorate(Object o) {
+		for (int i = 0; i < fields.size(); i++)
+			FieldAccessor.forField(o.getClass(), fields.get(i)).set(o, values.get(i));
+	}
+}
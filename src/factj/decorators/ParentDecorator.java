@@ -0,0 +1,52 @@
+package factj.decorators;
+
+import factj.Decorator;
+import factj.FactJ;
+
+/**
+ * Marks a factory as a variant of another one, like
+ * <code>fabricate(Person.class, "clients", parent(""), field("client", true))</code>.
+ * When the factory is registered (see {@link FactJ#registerFactory(factj.Factory)}), the
+ * marker is replaced by the decorators of the parent. The decorators of the variant follow
+ * them, but the ones that set a field the parent already sets take the place of the
+ * parent's. If the parent is not registered yet, that is done at the first build of the
+ * variant instead, which fails if the parent is still missing.
+ * <p>
+ * Decorators are shared with the parent, so a variant that keeps the sequences of its
+ * parent gives values from the same sequences. The {@link factj.Factory.Strategy} and the
+ * association executor of the parent are not inherited.
+ * @author Diego Aguir Selzlein
+ *
+ */
+public final class ParentDecorator implements Decorator<Object> {
+	private final Class<?> clazz;
+	private final String factoryName;
+
+	/**
+	 * @param clazz The Class of the parent factory, which the variant must build or
+	 * extend. <strong>null</strong> means the Class of the variant.
+	 * @param factoryName The name of the parent factory.
+	 */
+	public ParentDecorator(Class<?> clazz, String factoryName) {
+		this.clazz = clazz;
+		this.factoryName = factoryName;
+	}
+
+	public Class<?> getClazz() {
+		return clazz;
+	}
+
+	public String getFactoryName() {
+		return factoryName;
+	}
+
+	/**
+	 * @throws IllegalStateException Always, since this decorator is only a marker, replaced
+	 * when the factory is registered.
+	 */
+	@Override
+	public void decorate(Object o) {
+		throw new IllegalStateException("The parent of a factory is only resolved when the "
+				+ "factory is registered through FactJ");
+	}
+}
@@ -1,8 +1,13 @@
 package factj.decorators;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
+import factj.BuildContext;
+
 /**
  * This {@link FieldDecorator} changes a field in an object setting a value that
- * respects a sequence.
+ * respects a sequence. The values are unique even when objects are built by many threads
+ * at the same time.
  * @author Diego Aguir Selzlein
  *
  */
@@ -15,7 +20,14 @@ public class SequenceDecorator extends FieldDecorator {
 		public Object generate(int count);
 	}
 	protected Sequence sequence;
-	protected int count = 1;
+	/**
+	 * The next value of the sequence. It used to be an int; subclasses should call
+	 * {@link #next()} instead of changing it.
+	 */
+	protected final AtomicInteger count;
+	protected final int initialValue;
+	protected final int blockSize;
+	private final ThreadLocal<int[]> block;
 
 	/**
 	 * Creates a {@link SequenceDecorator} that gives a sequential value to the field parameterized.
@@ -34,8 +46,7 @@ public class SequenceDecorator extends FieldDecorator {
 	 * @param initialValue The first value of the sequence. Default: 1.
 	 */
 	public SequenceDecorator(String fieldName, int initialValue) {
-		this(fieldName);
-		count = initialValue;
+		this(fieldName, null, initialValue, 1);
 	}
 
 	/**
@@ -47,14 +58,138 @@ public class SequenceDecorator extends FieldDecorator {
 	 * to generate a new value every time an object is built.
 	 */
 	public SequenceDecorator(String fieldName, Sequence sequence) {
+		this(fieldName, sequence, 1, 1);
+	}
+
+	/**
+	 * Creates a {@link SequenceDecorator} where each thread reserves <strong>blockSize</strong>
+	 * values of the sequence at a time. Threads building objects concurrently won't compete
+	 * for the next value and the values will still be unique, but objects built by different
+	 * threads won't get them in the order they were built.
+	 * @param fieldName The name of the field which value will respect a sequence.
+	 * @param sequence The {@link Sequence} implementation that will be called in order
+	 * to generate a new value every time an object is built. It may be <strong>null</strong>.
+	 * @param initialValue The first value of the sequence. Default: 1.
+	 * @param blockSize How many values a thread reserves at a time. Default: 1, which means
+	 * all the threads share the sequence value by value.
+	 */
+	public SequenceDecorator(String fieldName, Sequence sequence, int initialValue,
+			int blockSize) {
 		super(fieldName);
+		if (blockSize < 1)
+			throw new IllegalArgumentException("Block size must be at least 1: " + blockSize);
 		this.sequence = sequence;
+		this.count = new AtomicInteger(initialValue);
+		this.initialValue = initialValue;
+		this.blockSize = blockSize;
+		this.block = blockSize == 1 ? null : new ThreadLocal<int[]>() {
+			@Override
+			protected int[] initialValue() {
+				return new int[2];
+			}
+		};
+	}
+
+	/**
+	 * @return The next value of this sequence. Each value is given only once.
+	 */
+	public int next() {
+		if (block == null)
+			return count.getAndIncrement();
+		int[] b = block.get();
+		if (b[0] == b[1]) {
+			b[0] = count.getAndAdd(blockSize);
+			b[1] = b[0] + blockSize;
+		}
+		return b[0]++;
+	}
+
+	/**
+	 * @return The {@link Sequence} that turns the numbers into values or
+	 * <strong>null</strong> if the field receives the numbers themselves.
+	 */
+	public Sequence getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return The first value of this sequence.
+	 */
+	public int getInitialValue() {
+		return initialValue;
+	}
+
+	/**
+	 * @return How many values a thread reserves at a time.
+	 */
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * @return The value the next object will get, unless a thread has already reserved it
+	 * in a block.
+	 */
+	public int getNextValue() {
+		return count.get();
+	}
+
+	/**
+	 * Makes the sequence continue from <strong>value</strong>. Blocks of values already
+	 * reserved by threads are kept.
+	 * @param value
+	 */
+	public void setNextValue(int value) {
+		count.set(value);
+	}
+
+	/**
+	 * Reserves <strong>size</strong> values of this sequence at once. They won't be given
+	 * by {@link #next()}.
+	 * @param size
+	 * @return The first value reserved. The others follow it.
+	 */
+	public int reserve(int size) {
+		return count.getAndAdd(size);
+	}
+
+	@Override
+	public void decorate(Object object, BuildContext context) {
+		if (sequence == null && getClass() == SequenceDecorator.class) {
+			Integer value = valueOf(context);
+			getAccessor(object.getClass()).setInt(object, value == null ? next() : value);
+		} else
+			super.decorate(object, context);
+	}
+
+	@Override
+	public Object getValue(Object target, BuildContext context) {
+		Integer value = valueOf(context);
+		if (value == null)
+			return getValue();
+		if (sequence == null)
+			return value;
+		return sequence.generate(value);
+	}
+
+	/**
+	 * @return The value reserved for the build or the next value of the
+	 * {@link factj.FactJContext} it runs in. <strong>null</strong> means the value must come
+	 * from this sequence itself, as in the default context.
+	 */
+	private Integer valueOf(BuildContext context) {
+		if (context == null)
+			return null;
+		Integer reserved = context.getReserved(this);
+		if (reserved != null)
+			return reserved;
+		return context.getFactJContext().nextValue(this);
 	}
 
 	@Override
 	public Object getValue() {
 		if (sequence == null)
-			return count++;
-		return sequence.generate(count++);
+			return next();
+		return sequence.generate(next());
 	}
 }
@@ -0,0 +1,232 @@
+package factj.persistence;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import factj.BatchPersistence;
+import factj.Persistence;
+
+/**
+ * A {@link Persistence} that saves objects in background threads, so objects can be built
+ * while the ones built before are still being saved. Objects wait in a bounded queue for the
+ * writers; when the queue is full, the thread saving blocks until there is room for it.
+ * <p>
+ * Errors thrown by the wrapped persistence are kept and thrown by the next call to
+ * {@link #flush()} or {@link #close()}. Objects are saved in the order they were given only
+ * when there is a single writer.
+ * <pre>
+ * AsyncPersistence persistence = new AsyncPersistence(new MyPersistence());
+ * FactJ.setPersistence(persistence);
+ * ...
+ * persistence.close();
+ * </pre>
+ * @author Diego Aguir Selzlein
+ *
+ */
+public class AsyncPersistence implements BatchPersistence, AutoCloseable {
+	private static final Object STOP = new Object();
+	private static final AtomicInteger threadCount = new AtomicInteger();
+
+	private final Persistence persistence;
+	private final BlockingQueue<Object> queue;
+	private final Thread[] writers;
+	private final Object lock = new Object();
+	private int pending;
+	private RuntimeException error;
+	private boolean closed;
+
+	/**
+	 * Creates an {@link AsyncPersistence} with a single writer and room for 1024 saves.
+	 * @param persistence The persistence that saves the objects.
+	 */
+	public AsyncPersistence(Persistence persistence) {
+		this(persistence, 1024, 1);
+	}
+
+	/**
+	 * @param persistence The persistence that saves the objects. It must be safe to be used
+	 * by many threads if there is more than one writer.
+	 * @param capacity How many saves may wait for the writers. A list given to
+	 * {@link #saveAll(List)} counts as one.
+	 * @param writers How many threads save the objects.
+	 */
+	public AsyncPersistence(Persistence persistence, int capacity, int writers) {
+		this(persistence, capacity, writers, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "factj-persistence-" + threadCount.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * @param persistence The persistence that saves the objects. It must be safe to be used
+	 * by many threads if there is more than one writer.
+	 * @param capacity How many saves may wait for the writers. A list given to
+	 * {@link #saveAll(List)} counts as one.
+	 * @param writers How many threads save the objects.
+	 * @param threadFactory Creates the writers, like <code>Thread.ofVirtual().factory()</code>.
+	 */
+	public AsyncPersistence(Persistence persistence, int capacity, int writers,
+			ThreadFactory threadFactory) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+		if (writers < 1)
+			throw new IllegalArgumentException("There must be at least 1 writer: " + writers);
+		this.persistence = persistence;
+		this.queue = new ArrayBlockingQueue<Object>(capacity);
+		this.writers = new Thread[writers];
+		for (int i = 0; i < writers; i++) {
+			this.writers[i] = threadFactory.newThread(new Runnable() {
+				@Override
+				public void run() {
+					write();
+				}
+			});
+			this.writers[i].start();
+		}
+	}
+
+	public Persistence getPersistence() {
+		return persistence;
+	}
+
+	@Override
+	public void save(Object o) {
+		enqueue(o);
+	}
+
+	@Override
+	public void saveAll(List<Object> objects) {
+		enqueue(new Batch(new ArrayList<Object>(objects)));
+	}
+
+	/**
+	 * Counts the <strong>item</strong> as pending before putting it in the queue, under the
+	 * same lock {@link #close()} marks this persistence as closed with, so close() waits for
+	 * every item accepted and the writers are only stopped after it's saved.
+	 */
+	private void enqueue(Object item) {
+		synchronized (lock) {
+			if (closed)
+				throw new IllegalStateException("This persistence was closed");
+			pending++;
+		}
+		try {
+			queue.put(item);
+		} catch (InterruptedException e) {
+			done(null);
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting to save", e);
+		}
+	}
+
+	private void write() {
+		while (true) {
+			Object item;
+			try {
+				item = queue.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (item == STOP)
+				return;
+			RuntimeException failure = null;
+			try {
+				if (item instanceof Batch)
+					writeAll(((Batch) item).objects);
+				else
+					persistence.save(item);
+			} catch (RuntimeException e) {
+				failure = e;
+			} catch (Error e) {
+				failure = new IllegalStateException("Failed to save", e);
+			}
+			done(failure);
+		}
+	}
+
+	private void writeAll(List<Object> objects) {
+		if (persistence instanceof BatchPersistence)
+			((BatchPersistence) persistence).saveAll(objects);
+		else
+			for (Object o : objects)
+				persistence.save(o);
+	}
+
+	private void done(RuntimeException failure) {
+		synchronized (lock) {
+			if (failure != null) {
+				if (error == null)
+					error = failure;
+				else if (error != failure)
+					error.addSuppressed(failure);
+			}
+			if (--pending == 0)
+				lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Waits until every object given so far is saved.
+	 * @throws RuntimeException The first error thrown while saving since the last call
+	 * to this method, if any. The others are added to it as suppressed.
+	 */
+	public void flush() {
+		RuntimeException failure;
+		synchronized (lock) {
+			boolean interrupted = false;
+			while (pending > 0)
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+			failure = error;
+			error = null;
+		}
+		if (failure != null)
+			throw failure;
+	}
+
+	/**
+	 * Waits until every object given so far is saved and stops the writers. Objects can't
+	 * be saved after that.
+	 * @throws RuntimeException Like {@link #flush()}.
+	 */
+	@Override
+	public void close() {
+		synchronized (lock) {
+			if (closed)
+				return;
+			closed = true;
+		}
+		try {
+			flush();
+		} finally {
+			for (int i = 0; i < writers.length; i++)
+				try {
+					queue.put(STOP);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+		}
+	}
+
+	private static final class Batch {
+		final List<Object> objects;
+
+		Batch(List<Object> objects) {
+			this.objects = objects;
+		}
+	}
+}
@@ -0,0 +1,383 @@
+package factj.persistence;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+import factj.BatchPersistence;
+import factj.FieldAccessor;
+
+/**
+ * A {@link BatchPersistence} that inserts objects straight into database tables through
+ * JDBC, sending many rows per statement with <code>addBatch</code>/<code>executeBatch</code>.
+ * <p>
+ * By convention, objects of a Class go to the table named after it and each one of its
+ * fields, including the inherited ones, goes to the column named after the field, both
+ * converted to snake case: <code>postalCode</code> becomes <code>postal_code</code>. A field
+ * that references another object, like an association, goes to the column
+ * <code>&lt;field&gt;_id</code> with the <code>id</code> of that object. Enums are saved by
+ * their names. Static and transient fields are skipped, and so are fields of other types of
+ * the JDK, like collections. Use {@link #map(Class)} to change that:
+ * <pre>
+ * JdbcPersistence persistence = new JdbcPersistence(connection);
+ * persistence.map(Person.class).table("people").column("email", "email_address").ignore("age");
+ * </pre>
+ * The objects given to {@link #saveAll(List)} are grouped per table, and each table is
+ * written after the tables its reference columns point to, so associated objects are
+ * inserted before the ones referencing them. Tables that reference each other are written
+ * in the order their first object was given. Lazy associations are built to get their
+ * <code>id</code>.
+ * <p>
+ * The insert statement of each table is prepared once and kept until {@link #close()}.
+ * Transactions are left to the caller.
+ * @author Diego Aguir Selzlein
+ *
+ */
+public class JdbcPersistence implements BatchPersistence, AutoCloseable {
+	private final Connection connection;
+	private final ConcurrentMap<Class<?>, Mapping> mappings =
+			new ConcurrentHashMap<Class<?>, Mapping>();
+	private volatile int batchSize = 1000;
+
+	/**
+	 * @param connection Where the objects will be inserted.
+	 */
+	public JdbcPersistence(Connection connection) {
+		this.connection = connection;
+	}
+
+	public Connection getConnection() {
+		return connection;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * @param batchSize How many rows are sent to the database at once. Default: 1000.
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1)
+			throw new IllegalArgumentException("Batch size must be at least 1: " + batchSize);
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Returns the mapping of <strong>clazz</strong> to its table, so it can be changed.
+	 * Changes must be done before objects of the Class are saved.
+	 * @param clazz
+	 * @return
+	 */
+	public Mapping map(Class<?> clazz) {
+		Mapping mapping = mappings.get(clazz);
+		if (mapping == null) {
+			mapping = new Mapping(clazz);
+			Mapping existing = mappings.putIfAbsent(clazz, mapping);
+			if (existing != null)
+				mapping = existing;
+		}
+		return mapping;
+	}
+
+	@Override
+	public void save(Object o) {
+		saveAll(Collections.singletonList(o));
+	}
+
+	@Override
+	public void saveAll(List<Object> objects) {
+		Map<Mapping, List<Object>> tables = new LinkedHashMap<Mapping, List<Object>>();
+		for (Object o : objects) {
+			Mapping mapping = map(o.getClass());
+			List<Object> rows = tables.get(mapping);
+			if (rows == null)
+				tables.put(mapping, rows = new ArrayList<Object>());
+			rows.add(o);
+		}
+		for (Mapping mapping : order(tables.keySet()))
+			insert(mapping, tables.get(mapping));
+	}
+
+	/**
+	 * Closes the statements prepared so far. The connection is left open.
+	 */
+	@Override
+	public void close() {
+		for (Mapping mapping : mappings.values())
+			mapping.closeStatement();
+	}
+
+	/**
+	 * Sorts the <strong>mappings</strong> so each one comes after the ones its reference
+	 * columns point to. When they reference each other, the first one goes first.
+	 * @param mappings
+	 * @return
+	 */
+	private static List<Mapping> order(Collection<Mapping> mappings) {
+		List<Mapping> remaining = new ArrayList<Mapping>(mappings);
+		List<Mapping> result = new ArrayList<Mapping>(remaining.size());
+		while (!remaining.isEmpty()) {
+			int next = 0;
+			for (int i = 0; i < remaining.size(); i++)
+				if (!references(remaining.get(i), remaining)) {
+					next = i;
+					break;
+				}
+			result.add(remaining.remove(next));
+		}
+		return result;
+	}
+
+	private static boolean references(Mapping mapping, List<Mapping> others) {
+		for (Column c : mapping.columns())
+			if (c.reference)
+				for (Mapping other : others)
+					if (other != mapping && c.accessor.getType().isAssignableFrom(other.clazz))
+						return true;
+		return false;
+	}
+
+	/**
+	 * Inserts the <strong>rows</strong> through the statement of the <strong>mapping</strong>,
+	 * which is used by one thread at a time. If anything fails, the statement is closed, so
+	 * the rows already batched are not sent with the next ones.
+	 */
+	private void insert(Mapping mapping, List<Object> rows) {
+		synchronized (mapping) {
+			List<Column> columns = mapping.columns();
+			boolean inserted = false;
+			try {
+				PreparedStatement statement = mapping.statement(connection);
+				int pending = 0;
+				for (Object row : rows) {
+					for (int i = 0; i < columns.size(); i++)
+						columns.get(i).bind(statement, i + 1, row);
+					statement.addBatch();
+					if (++pending == batchSize) {
+						statement.executeBatch();
+						pending = 0;
+					}
+				}
+				if (pending > 0)
+					statement.executeBatch();
+				inserted = true;
+			} catch (SQLException e) {
+				throw new RuntimeException("Failed to insert into " + mapping.getTable(), e);
+			} finally {
+				if (!inserted)
+					mapping.closeStatement();
+			}
+		}
+	}
+
+	/**
+	 * Converts <strong>name</strong> from camel case to snake case.
+	 * @param name
+	 * @return
+	 */
+	static String snakeCase(String name) {
+		StringBuilder result = new StringBuilder(name.length() + 4);
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (Character.isUpperCase(c)) {
+				if (i > 0)
+					result.append('_');
+				result.append(Character.toLowerCase(c));
+			} else
+				result.append(c);
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Tells how the objects of a Class are saved: the table and the column of each field.
+	 * @author Diego Aguir Selzlein
+	 *
+	 */
+	public static final class Mapping {
+		private final Class<?> clazz;
+		private volatile String table;
+		private final Map<String, String> columnNames = new LinkedHashMap<String, String>();
+		private volatile List<Column> columns;
+		private volatile String insert;
+		private PreparedStatement statement;
+
+		Mapping(Class<?> clazz) {
+			this.clazz = clazz;
+			this.table = snakeCase(clazz.getSimpleName());
+			List<Class<?>> hierarchy = new ArrayList<Class<?>>();
+			for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass())
+				hierarchy.add(0, c);
+			for (Class<?> c : hierarchy)
+				for (Field f : c.getDeclaredFields())
+					if (!Modifier.isStatic(f.getModifiers())
+							&& !Modifier.isTransient(f.getModifiers()) && !f.isSynthetic())
+						if (isSimple(f.getType()))
+							columnNames.put(f.getName(), snakeCase(f.getName()));
+						else if (isReference(f.getType()))
+							columnNames.put(f.getName(), snakeCase(f.getName()) + "_id");
+		}
+
+		public Class<?> getClazz() {
+			return clazz;
+		}
+
+		public String getTable() {
+			return table;
+		}
+
+		/**
+		 * @param table The name of the table. Default: the simple name of the Class in snake
+		 * case.
+		 * @return This mapping.
+		 */
+		public synchronized Mapping table(String table) {
+			this.table = table;
+			insert = null;
+			closeStatement();
+			return this;
+		}
+
+		/**
+		 * @param fieldName
+		 * @param column The column the field is saved to.
+		 * @return This mapping.
+		 */
+		public synchronized Mapping column(String fieldName, String column) {
+			FieldAccessor.forField(clazz, fieldName);
+			columnNames.put(fieldName, column);
+			columns = null;
+			insert = null;
+			closeStatement();
+			return this;
+		}
+
+		/**
+		 * @param fieldName A field that must not be saved.
+		 * @return This mapping.
+		 */
+		public synchronized Mapping ignore(String fieldName) {
+			columnNames.remove(fieldName);
+			columns = null;
+			insert = null;
+			closeStatement();
+			return this;
+		}
+
+		synchronized List<Column> columns() {
+			if (columns == null) {
+				List<Column> result = new ArrayList<Column>(columnNames.size());
+				for (Map.Entry<String, String> c : columnNames.entrySet())
+					result.add(new Column(FieldAccessor.forField(clazz, c.getKey()),
+							c.getValue()));
+				columns = result;
+			}
+			return columns;
+		}
+
+		synchronized PreparedStatement statement(Connection connection) throws SQLException {
+			if (statement == null)
+				statement = connection.prepareStatement(insert());
+			return statement;
+		}
+
+		synchronized void closeStatement() {
+			if (statement == null)
+				return;
+			try {
+				statement.close();
+			} catch (SQLException e) {
+				// It's discarded anyway.
+			}
+			statement = null;
+		}
+
+		synchronized String insert() {
+			if (insert == null) {
+				StringBuilder names = new StringBuilder();
+				StringBuilder values = new StringBuilder();
+				for (Column c : columns()) {
+					if (names.length() > 0) {
+						names.append(", ");
+						values.append(", ");
+					}
+					names.append(c.name);
+					values.append('?');
+				}
+				insert = "INSERT INTO " + table + " (" + names + ") VALUES (" + values + ")";
+			}
+			return insert;
+		}
+	}
+
+	private static final class Column {
+		private final FieldAccessor accessor;
+		private final String name;
+		private final boolean reference;
+
+		Column(FieldAccessor accessor, String name) {
+			this.accessor = accessor;
+			this.name = name;
+			this.reference = isReference(accessor.getType());
+		}
+
+		void bind(PreparedStatement statement, int index, Object row) throws SQLException {
+			Object value = accessor.get(row);
+			if (value != null && reference) {
+				value = unwrap(value);
+				if (value != null)
+					value = FieldAccessor.forField(value.getClass(), "id").get(value);
+			}
+			if (value == null)
+				statement.setNull(index, Types.NULL);
+			else if (value instanceof Enum)
+				statement.setString(index, ((Enum<?>) value).name());
+			else
+				statement.setObject(index, value);
+		}
+	}
+
+	/**
+	 * @return The object behind <strong>value</strong> if it is the proxy of a lazy
+	 * association, building it if needed, or <strong>value</strong> itself.
+	 */
+	private static Object unwrap(Object value) {
+		if (!Proxy.isProxyClass(value.getClass()))
+			return value;
+		InvocationHandler handler = Proxy.getInvocationHandler(value);
+		return handler instanceof Supplier ? ((Supplier<?>) handler).get() : value;
+	}
+
+	private static boolean isSimple(Class<?> type) {
+		return type.isPrimitive() || type.isEnum() || type == byte[].class
+				|| type == Boolean.class || type == Character.class
+				|| Number.class.isAssignableFrom(type) || CharSequence.class.isAssignableFrom(type)
+				|| java.util.Date.class.isAssignableFrom(type) || type == java.util.UUID.class
+				|| type.getName().startsWith("java.time.");
+	}
+
+	/**
+	 * @return <strong>true</strong> if fields of the <strong>type</strong> reference other
+	 * objects that are saved on their own tables. Other types, like collections, are not
+	 * saved unless mapped to a column.
+	 */
+	private static boolean isReference(Class<?> type) {
+		return !isSimple(type) && !type.isArray() && !type.getName().startsWith("java.")
+				&& !type.getName().startsWith("javax.");
+	}
+}
@@ -0,0 +1,17 @@
+package factj.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import factj.BatchPersistence;
+
+public class BatchPersistenceTest extends PersistenceTest implements BatchPersistence {
+	public List<List<Object>> batches = new ArrayList<List<Object>>();
+
+	@Override
+	public void saveAll(List<Object> objects) {
+		batches.add(new ArrayList<Object>(objects));
+		for (Object o : objects)
+			save(o);
+	}
+}
@@ -0,0 +1,128 @@
+package factj.test;
+
+import static factj.FactJHelper.association;
+import static factj.FactJHelper.fabricate;
+import static factj.FactJHelper.field;
+import static factj.FactJHelper.sequence;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import factj.BuildMetrics;
+import factj.BuildMetrics.Stats;
+import factj.FactJ;
+import factj.test.models.Address;
+import factj.test.models.Person;
+
+@RunWith(JUnit4.class)
+public class BuildMetricsTest {
+	private BuildMetrics metrics;
+
+	@Before
+	public void setUp() throws Exception {
+		fabricate(Address.class,
+				sequence("id"),
+				field("address", "An address"));
+		fabricate(Person.class,
+				sequence("id"),
+				field("name", "A person"),
+				association("address"));
+		metrics = new BuildMetrics(true);
+		FactJ.setBuildListener(metrics);
+		FactJ.setPersistence(new PersistenceTest());
+	}
+
+	@Test
+	public void testRecordsBuilds() {
+		for (int i = 0; i < 3; i++)
+			FactJ.create(Person.class);
+
+		Stats people = metrics.get(Person.class, "");
+		assertEquals("It should have counted the builds", 3, people.getCount());
+		assertEquals("It should have counted the associations", 1,
+				people.getAssociationsPerBuild(), 0);
+		assertEquals("It should have counted the associations", 1, people.getMaxAssociations());
+		assertEquals("It should have counted the associated builds", 3,
+				metrics.get(Address.class, "").getCount());
+		assertEquals("It should have counted every build", 6, metrics.getBuilds());
+		assertEquals("It should have counted the saves", 6, metrics.getSaves());
+		assertTrue("It should have timed the decorators",
+				people.getDecoratorNanos().containsKey("AssociationDecorator(address)"));
+		assertTrue("It should have timed the builds",
+				people.getPercentile(0.99) <= people.getMaxNanos());
+		assertTrue("It should have counted the allocated bytes", people.getAllocatedBytes() > 0);
+		assertTrue("It should have reported the factories",
+				metrics.getReport().contains("Person"));
+
+		metrics.reset();
+		assertEquals("It should have forgotten the builds", 0, metrics.getBuilds());
+	}
+
+	@Test
+	public void testMBean() throws Exception {
+		FactJ.build(Person.class);
+		ObjectName name = metrics.register();
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			assertEquals("It should have shown the builds", 2L,
+					server.getAttribute(name, "Builds"));
+		} finally {
+			server.unregisterMBean(name);
+		}
+	}
+
+	@Test
+	public void testRecordsFailedBuilds() {
+		fabricate(Person.class, "broken", field("missing", 1));
+		try {
+			FactJ.build(Person.class, "broken");
+			fail("It should have failed on the missing field");
+		} catch (RuntimeException e) {
+			assertEquals("It should have finished the failed build", 1, metrics.getBuilds());
+		}
+	}
+
+	@Test
+	public void testReregisteredFactoriesShareStats() {
+		FactJ.build(Person.class);
+		Stats stats = metrics.get(Person.class, null);
+		FactJ.clear();
+		fabricate(Person.class,
+				sequence("id"),
+				field("name", "Another person"));
+		FactJ.build(Person.class);
+		String report = metrics.getReport();
+		assertEquals("It should have reported the factory once", report.indexOf("Person"),
+				report.lastIndexOf("Person"));
+		assertTrue("It should have merged the builds", report.contains(" 2 "));
+		assertSame("The stats should be shared by the factories", stats,
+				metrics.get(Person.class, null));
+		assertEquals("It should have counted both builds", 2, stats.getCount());
+	}
+
+	@Test
+	public void testNoListener() {
+		FactJ.setBuildListener(null);
+		FactJ.create(Person.class);
+		assertEquals("It shouldn't have recorded anything", 0, metrics.getBuilds());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FactJ.setBuildListener(null);
+		FactJ.setPersistence(null);
+		FactJ.clear();
+	}
+}
@@ -0,0 +1,135 @@
+package factj.test;
+
+import static factj.FactJHelper.field;
+import static factj.FactJHelper.sequence;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import factj.FactJ;
+import factj.FactJHelper;
+import factj.Factory;
+import factj.Factory.Strategy;
+import factj.FactoryProvider;
+import factj.test.models.Address;
+import factj.test.models.Person;
+
+@RunWith(JUnit4.class)
+public class DiscoveryTest {
+	private static final AtomicInteger registrations = new AtomicInteger();
+
+	public static class AddressProvider implements FactoryProvider {
+		@Override
+		public void register() {
+			registrations.incrementAndGet();
+			FactJHelper.fabricate(Address.class,
+					sequence("id"),
+					field("address", "Discovered"));
+		}
+	}
+
+	public static class FailingProvider implements FactoryProvider {
+		@Override
+		public void register() {
+			if (registrations.incrementAndGet() == 1)
+				throw new IllegalStateException("Not ready yet");
+			FactJHelper.fabricate(Address.class,
+					sequence("id"),
+					field("address", "Retried"));
+		}
+	}
+
+	private Path directory;
+	private URLClassLoader loader;
+
+	@Before
+	public void setUp() throws Exception {
+		registrations.set(0);
+		directory = Files.createTempDirectory("factj");
+		Path services = directory.resolve("META-INF/services");
+		Files.createDirectories(services);
+		Files.write(services.resolve(FactoryProvider.class.getName()),
+				Collections.singletonList(AddressProvider.class.getName()),
+				StandardCharsets.UTF_8);
+		loader = new URLClassLoader(new URL[] { directory.toUri().toURL() },
+				getClass().getClassLoader());
+	}
+
+	@Test
+	public void testDiscover() {
+		assertEquals("It should have found the provider", 1, FactJ.discover(loader, true));
+		assertEquals("Built wrong address", "Discovered",
+				((Address) FactJ.build(Address.class)).getAddress());
+
+		FactJ.discover(loader, false);
+		assertEquals("It should have registered the factories only once", 1,
+				registrations.get());
+	}
+
+	@Test
+	public void testRetriesFailedProviders() throws Exception {
+		Files.write(directory.resolve("META-INF/services").resolve(
+				FactoryProvider.class.getName()),
+				Collections.singletonList(FailingProvider.class.getName()),
+				StandardCharsets.UTF_8);
+		try {
+			FactJ.discover(loader, false);
+			fail("It should have failed to register the factories");
+		} catch (IllegalStateException e) {
+			assertEquals("Wrong message", "Not ready yet", e.getMessage());
+		}
+		FactJ.discover(loader, false);
+		assertEquals("It should have registered the provider again", "Retried",
+				((Address) FactJ.build(Address.class)).getAddress());
+	}
+
+	@Test
+	public void testAutoDiscovery() {
+		Thread thread = Thread.currentThread();
+		ClassLoader previous = thread.getContextClassLoader();
+		thread.setContextClassLoader(loader);
+		try {
+			FactJ.setAutoDiscovery(true);
+			assertNotNull("It should have discovered the factory", FactJ.build(Address.class));
+			FactJ.build(Person.class);
+			assertEquals("It should have discovered only once", 1, registrations.get());
+		} finally {
+			thread.setContextClassLoader(previous);
+		}
+	}
+
+	@Test
+	public void testWarmUpUsesNoSequenceValue() {
+		Factory f = new Factory(Address.class,
+				sequence("id"),
+				field("address", "Warm")).setStrategy(Strategy.PROTOTYPE);
+		f.warmUp();
+		assertEquals("Built wrong id", 1, ((Address) f.fabricate()).getId());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FactJ.setAutoDiscovery(false);
+		FactJ.clear();
+		loader.close();
+		Files.delete(directory.resolve("META-INF/services").resolve(
+				FactoryProvider.class.getName()));
+		Files.delete(directory.resolve("META-INF/services"));
+		Files.delete(directory.resolve("META-INF"));
+		Files.delete(directory);
+	}
+}
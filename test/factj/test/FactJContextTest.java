@@ -0,0 +1,122 @@
+package factj.test;
+
+import static factj.FactJHelper.association;
+import static factj.FactJHelper.field;
+import static factj.FactJHelper.sequence;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import factj.FactJ;
+import factj.FactJContext;
+import factj.FactJHelper;
+import factj.test.models.Address;
+import factj.test.models.Person;
+
+@RunWith(JUnit4.class)
+public class FactJContextTest {
+	@Before
+	public void setUp() {
+		FactJHelper.fabricate(Address.class,
+				sequence("id"),
+				field("address", "Default"));
+		FactJHelper.fabricate(Person.class,
+				sequence("id", 5),
+				field("name", "Person"),
+				association("address"));
+	}
+
+	@Test
+	public void testSequencesAreIsolated() {
+		FactJ.build(Person.class);
+		final FactJContext context = new FactJContext(FactJContext.getDefault());
+		Person p = context.call(() -> (Person) FactJ.build(Person.class));
+		assertEquals("The sequence should start over in a new context", 5, p.getId());
+		assertEquals("The association should start over too", 1, p.getAddress().getId());
+		assertEquals("The default context should keep its values", 6,
+				((Person) FactJ.build(Person.class)).getId());
+		assertEquals("Built wrong id", 6, ((Person) context.build(Person.class, "")).getId());
+	}
+
+	@Test
+	public void testSequenceBlocksPerThread() throws Exception {
+		final FactJContext context = new FactJContext(FactJContext.getDefault());
+		context.run(() -> FactJHelper.fabricate(Address.class, "blocks",
+				FactJHelper.sequence("id", null, 1, 10)));
+		assertEquals("Built wrong id", 1, ((Address) context.build(Address.class, "blocks"))
+				.getId());
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			assertEquals("The other thread should have reserved its own block", 11,
+					(int) executor.submit(() -> ((Address) context.build(Address.class,
+							"blocks")).getId()).get());
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals("Built wrong id", 2, ((Address) context.build(Address.class, "blocks"))
+				.getId());
+	}
+
+	@Test
+	public void testFactoriesAreShadowed() {
+		FactJContext context = new FactJContext(FactJContext.getDefault());
+		context.run(() -> FactJHelper.fabricate(Address.class, field("address", "Context")));
+		assertEquals("The context should use its own factory", "Context",
+				((Address) context.build(Address.class, "")).getAddress());
+		assertEquals("The default context should not see it", "Default",
+				((Address) FactJ.build(Address.class)).getAddress());
+
+		context.clear();
+		assertEquals("The factory of the parent should be back", "Default",
+				((Address) context.build(Address.class, "")).getAddress());
+		assertNull("An empty context should have no factories",
+				new FactJContext().build(Address.class, ""));
+	}
+
+	@Test
+	public void testPersistenceIsIsolated() {
+		final List<Object> saved = new ArrayList<Object>();
+		FactJContext context = new FactJContext(FactJContext.getDefault());
+		context.setPersistence(saved::add);
+		FactJ.create(Address.class);
+		Address a = (Address) context.create(Address.class, "");
+		assertEquals("Only the objects of the context should be saved", 1, saved.size());
+		assertSame("Saved wrong object", a, saved.get(0));
+	}
+
+	@Test
+	public void testConcurrentContexts() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<List<Object>>> results = new ArrayList<Future<List<Object>>>();
+			for (int i = 0; i < 8; i++)
+				results.add(executor.submit(() -> new FactJContext(FactJContext.getDefault())
+						.call(() -> FactJ.buildList(Person.class, 100))));
+			for (Future<List<Object>> result : results) {
+				List<Object> people = result.get();
+				for (int i = 0; i < people.size(); i++)
+					assertEquals("Each context should have its own sequence", 5 + i,
+							((Person) people.get(i)).getId());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@After
+	public void tearDown() {
+		FactJ.clear();
+	}
+}
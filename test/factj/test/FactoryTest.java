@@ -0,0 +1,380 @@
+package factj.test;
+
+import static factj.FactJHelper.association;
+import static factj.FactJHelper.field;
+import static factj.FactJHelper.parent;
+import static factj.FactJHelper.sequence;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import factj.BuildContext;
+import factj.Decorator;
+import factj.FactJ;
+import factj.FactJContext;
+import factj.FactJHelper;
+import factj.Factory;
+import factj.Factory.Strategy;
+import factj.FieldAccessor;
+import factj.decorators.FieldDecorator;
+import factj.test.models.Address;
+import factj.test.models.Address2;
+import factj.test.models.Person;
+import factj.test.models.Product;
+import factj.test.models.Shipment;
+
+@RunWith(JUnit4.class)
+public class FactoryTest {
+	@Before
+	public void setUp() throws Exception {
+		FactJHelper.fabricate(Address.class,
+				sequence("id"),
+				field("address", "Street X"));
+	}
+
+	@Test
+	public void testCompiledStrategy() {
+		Factory f = new Factory(Person.class,
+				sequence("id"),
+				field("name", "A person"),
+				field("email", "a@company.com"),
+				association("address"),
+				new Decorator<Person>() {
+					@Override
+					public void decorate(Person p) {
+						p.setEmail(p.getName() + " " + p.getEmail());
+					}
+				}).setStrategy(Strategy.COMPILED);
+		assertTrue("It should have compiled the factory", f.compile());
+
+		for (int i = 1; i <= 2; i++) {
+			Person p = (Person) f.fabricate();
+			assertEquals("Built wrong id", i, p.getId());
+			assertEquals("Built wrong name", "A person", p.getName());
+			assertEquals("Decorators ran out of order", "A person a@company.com", p.getEmail());
+			assertEquals("Built wrong address", "Street X", p.getAddress().getAddress());
+		}
+	}
+
+	@Test
+	public void testCompiledConstantsCannotChange() {
+		FieldDecorator name = new FieldDecorator("name", "A person");
+		Factory f = new Factory(Person.class, name).setStrategy(Strategy.COMPILED);
+		assertTrue("It should have compiled the factory", f.compile());
+		try {
+			name.setValue("Another person");
+			fail("It should have refused to change a compiled constant");
+		} catch (IllegalStateException e) {
+		}
+		assertEquals("Built wrong name", "A person", ((Person) f.fabricate()).getName());
+	}
+
+	@Test
+	public void testCompiledStrategyFallsBackForSubclasses() {
+		Factory f = new Factory(Address.class, "", Address2::new,
+				sequence("id"),
+				field("address", "Street Y")).setStrategy(Strategy.COMPILED);
+
+		Address a = (Address) f.fabricate();
+		assertTrue("It should have used the instantiator", a instanceof Address2);
+		assertEquals("Built wrong address", "Street Y", a.getAddress());
+	}
+
+	@Test
+	public void testPrototypeStrategy() {
+		FieldDecorator name = new FieldDecorator("name", "A person");
+		Factory f = new Factory(Person.class,
+				sequence("id"),
+				name,
+				association("address"),
+				field("email", "a@company.com")).setStrategy(Strategy.PROTOTYPE);
+
+		for (int i = 1; i <= 2; i++) {
+			Person p = (Person) f.fabricate();
+			assertEquals("Built wrong id", i, p.getId());
+			assertEquals("Built wrong name", "A person", p.getName());
+			assertEquals("Built wrong email", "a@company.com", p.getEmail());
+			assertEquals("Built wrong address id", i, p.getAddress().getId());
+		}
+		assertTrue("It should have set the constant through the template", name.isFrozen());
+	}
+
+	@Test
+	public void testPrototypeStrategyClonesCloneableObjects() {
+		FieldDecorator name = new FieldDecorator("name", "A product");
+		Factory f = new Factory(Product.class,
+				sequence("id"),
+				name,
+				field("description", "Something"),
+				field("price", 9.99)).setStrategy(Strategy.PROTOTYPE);
+
+		Product first = (Product) f.fabricate();
+		Product second = (Product) f.fabricate();
+		assertNotSame("It should have built a new object", first, second);
+		assertEquals("Built wrong id", 2, second.getId());
+		assertEquals("Built wrong name", "A product", second.getName());
+		assertEquals("Built wrong description", "Something", second.getDescription());
+		assertEquals("Built wrong price", 9.99, second.getPrice(), 0);
+		assertTrue("It should have cloned the template", name.isFrozen());
+	}
+
+	@Test
+	public void testChangingTheInstantiatorDiscardsTheTemplate() {
+		Factory f = new Factory(Product.class,
+				field("name", "A product")).setStrategy(Strategy.PROTOTYPE);
+		f.fabricate();
+		f.setInstantiator(() -> {
+			Product p = new Product();
+			FieldAccessor.forField(Product.class, "description").set(p, "From the instantiator");
+			return p;
+		});
+		assertEquals("It should have used the new instantiator", "From the instantiator",
+				((Product) f.fabricate()).getDescription());
+
+		f.setStrategy(Strategy.REFLECTIVE);
+		f.setInstantiator(null);
+		f.fabricate();
+		f.setStrategy(Strategy.PROTOTYPE);
+		assertEquals("It should have built a new template", null,
+				((Product) f.fabricate()).getDescription());
+	}
+
+	@Test
+	public void testPrototypeStrategyKeepsDecoratorsOrder() {
+		Factory f = new Factory(Person.class,
+				field("name", "A person"),
+				new Decorator<Person>() {
+					@Override
+					public void decorate(Person p) {
+						p.setEmail(p.getName() + "@company.com");
+						p.setName("Changed");
+					}
+				},
+				field("name", "Final")).setStrategy(Strategy.PROTOTYPE);
+
+		Person p = (Person) f.fabricate();
+		assertEquals("Decorators ran out of order", "A person@company.com", p.getEmail());
+		assertEquals("Decorators ran out of order", "Final", p.getName());
+	}
+
+	@Test
+	public void testPrototypeStrategyKeepsFieldDecoratorSubclassesInOrder() {
+		Factory f = new Factory(Product.class,
+				new FieldDecorator("description") {
+					@Override
+					public Object getValue(Object target, BuildContext context) {
+						return "Before " + ((Product) target).getName();
+					}
+				},
+				field("name", "A product")).setStrategy(Strategy.PROTOTYPE);
+
+		for (int i = 0; i < 2; i++) {
+			Product p = (Product) f.fabricate();
+			assertEquals("Decorators ran out of order", "Before null", p.getDescription());
+			assertEquals("Built wrong name", "A product", p.getName());
+		}
+	}
+
+	@Test
+	public void testParallelAssociations() throws Exception {
+		PersistenceTest sequential = new PersistenceTest();
+		PersistenceTest parallel = new PersistenceTest();
+		List<String> expected = buildShipments(null, sequential);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			FactJ.clear();
+			setUp();
+			assertEquals("Built different objects", expected, buildShipments(executor, parallel));
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals("Saved in a different order", sequential.received.toString(),
+				parallel.received.toString());
+	}
+
+	@Test
+	public void testParallelAssociationsKeepSharedSequencesInOrder() {
+		Decorator<Object> ids = sequence("id");
+		FactJHelper.fabricate(Person.class, ids);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Factory f = new Factory(Shipment.class,
+					association("receiver"),
+					association("product")).setAssociationExecutor(executor);
+			assertEquals("Built wrong receiver", 1,
+					((Shipment) f.fabricate()).getReceiver().getId());
+
+			FactJHelper.fabricate(Product.class, ids);
+			for (int i = 1; i <= 20; i++) {
+				Shipment s = (Shipment) f.fabricate();
+				assertEquals("Built wrong receiver", 2 * i, s.getReceiver().getId());
+				assertEquals("Built wrong product", 2 * i + 1, s.getProduct().getId());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testParallelAssociationsStopAtCustomDecoratorsOfAssociations() {
+		FactJHelper.fabricate(Product.class, sequence("id"));
+		FactJHelper.fabricate(Person.class,
+				sequence("id"),
+				new Decorator<Person>() {
+					@Override
+					public void decorate(Person p) {
+						FactJ.build(Product.class);
+					}
+				});
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			Factory f = new Factory(Shipment.class,
+					association("receiver"),
+					association("product")).setAssociationExecutor(executor);
+			for (int i = 1; i <= 50; i++)
+				assertEquals("Built wrong product", 2 * i,
+						((Shipment) f.fabricate()).getProduct().getId());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testParallelAssociationsArePlannedPerContext() {
+		FactJHelper.fabricate(Person.class, sequence("id"));
+		FactJHelper.fabricate(Product.class, sequence("id"));
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			FactJ.registerFactory(new Factory(Shipment.class,
+					association("receiver"),
+					association("product")).setAssociationExecutor(executor));
+			FactJ.build(Shipment.class);
+
+			FactJContext context = new FactJContext(FactJContext.getDefault());
+			context.run(() -> {
+				Decorator<Object> ids = sequence("id");
+				FactJHelper.fabricate(Person.class, ids);
+				FactJHelper.fabricate(Product.class, ids);
+			});
+			for (int i = 1; i <= 20; i++) {
+				Shipment s = (Shipment) context.build(Shipment.class, "");
+				assertEquals("Built wrong receiver", 2 * i - 1, s.getReceiver().getId());
+				assertEquals("Built wrong product", 2 * i, s.getProduct().getId());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private List<String> buildShipments(ExecutorService executor, PersistenceTest persistence) {
+		FactJ.setPersistence(persistence);
+		FactJHelper.fabricate(Person.class,
+				sequence("id"),
+				association("address"));
+		FactJHelper.fabricate(Product.class,
+				sequence("id"),
+				field("name", "A product"));
+		Factory f = new Factory(Shipment.class,
+				sequence("id"),
+				association("receiver"),
+				association("product"),
+				association("origin")).setAssociationExecutor(executor);
+
+		List<String> built = new ArrayList<String>();
+		for (int i = 0; i < 20; i++)
+			built.add(f.fabricate().toString());
+		return built;
+	}
+
+	@Test
+	public void testInheritance() {
+		FactJHelper.fabricate(Person.class,
+				sequence("id"),
+				field("name", "A person"),
+				field("email", "a@company.com"),
+				association("address"));
+		FactJHelper.fabricate(Person.class, "clients",
+				parent(""),
+				field("name", "A client"),
+				new Decorator<Person>() {
+					@Override
+					public void decorate(Person p) {
+						p.setEmail(p.getName() + " " + p.getEmail());
+					}
+				});
+		Person p = (Person) FactJ.build(Person.class, "clients");
+		assertEquals("Built wrong id", 1, p.getId());
+		assertEquals("The name should have been set where the parent sets it",
+				"A client a@company.com", p.getEmail());
+		assertEquals("Built wrong address", "Street X", p.getAddress().getAddress());
+		assertEquals("The variant should share the sequence of the parent", 2,
+				((Person) FactJ.build(Person.class)).getId());
+	}
+
+	@Test
+	public void testParentsMayBeRegisteredLater() {
+		FactJHelper.fabricate(Person.class, "vips",
+				parent("clients"),
+				field("name", "A VIP"));
+		FactJHelper.fabricate(Person.class, "clients",
+				parent(""),
+				field("email", "client@company.com"));
+		FactJHelper.fabricate(Person.class,
+				sequence("id"),
+				field("name", "A person"));
+		Person p = (Person) FactJ.build(Person.class, "vips");
+		assertEquals("Built wrong id", 1, p.getId());
+		assertEquals("Built wrong name", "A VIP", p.getName());
+		assertEquals("Built wrong email", "client@company.com", p.getEmail());
+		assertEquals("The variants should share the sequence", 2,
+				((Person) FactJ.build(Person.class)).getId());
+	}
+
+	@Test
+	public void testInheritanceCycles() {
+		FactJHelper.fabricate(Person.class, "a", parent("b"));
+		FactJHelper.fabricate(Person.class, "b", parent("a"));
+		try {
+			FactJ.build(Person.class, "a");
+			fail("It should have failed on the cycle");
+		} catch (IllegalStateException e) {
+			assertEquals("Wrong message", "Factories inherit from each other in a cycle: "
+					+ "Person(\"a\") -> Person(\"b\") -> Person(\"a\")", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testInheritanceFailsFast() {
+		FactJHelper.fabricate(Person.class, "clients", parent("unknown"));
+		try {
+			FactJ.build(Person.class, "clients");
+			fail("It should have failed without the parent");
+		} catch (IllegalStateException e) {
+			assertEquals("Wrong message", "The parent of Person(\"clients\") is not registered: "
+					+ "Person(\"unknown\")", e.getMessage());
+		}
+		try {
+			FactJHelper.fabricate(Person.class, "clients", parent(Address.class, ""));
+			fail("It should have failed with a parent of another class");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FactJ.setPersistence(null);
+		FactJ.clear();
+	}
+}
@@ -1,14 +1,19 @@
 package factj.test;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import factj.Persistence;
 
 public class PersistenceTest implements Persistence {
 	public boolean called = false;
 	public Object lastReceived;
+	public List<Object> received = new ArrayList<Object>();
 
 	@Override
 	public void save(Object o) {
 		called = true;
 		lastReceived = o;
+		received.add(o);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,240 @@
+package factj.test;
+
+import static factj.FactJHelper.association;
+import static factj.FactJHelper.fabricate;
+import static factj.FactJHelper.field;
+import static factj.FactJHelper.sequence;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import factj.Decorator;
+import factj.FactJ;
+import factj.Snapshot;
+import factj.test.models.Address;
+import factj.test.models.Company;
+import factj.test.models.Person;
+
+@RunWith(JUnit4.class)
+public class SnapshotTest {
+	private Path directory;
+	private Path file;
+	private int sessions;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = Files.createTempDirectory("factj");
+		file = directory.resolve("fixtures.snapshot");
+		register();
+	}
+
+	private void register() {
+		fabricate(Address.class,
+				sequence("id"),
+				field("address", "An address"));
+		fabricate(Person.class,
+				sequence("id"),
+				field("name", "A person"),
+				association("address").reuse());
+		fabricate(Company.class, () -> new Company("ACME"),
+				sequence("id"));
+	}
+
+	private final Runnable session = new Runnable() {
+		@Override
+		public void run() {
+			sessions++;
+			FactJ.scope(new Runnable() {
+				@Override
+				public void run() {
+					FactJ.createList(Person.class, 3);
+				}
+			});
+			FactJ.build(Company.class);
+		}
+	};
+
+	@Test
+	public void testRestoresSnapshot() {
+		PersistenceTest first = new PersistenceTest();
+		FactJ.setPersistence(first);
+		Snapshot taken = FactJ.snapshot(file, session);
+		assertTrue("It should have written the file", Files.exists(file));
+		List<String> saved = toStrings(first.received);
+		int nextId = ((Person) FactJ.build(Person.class)).getId();
+
+		FactJ.clear();
+		register();
+		PersistenceTest second = new PersistenceTest();
+		FactJ.setPersistence(second);
+		Snapshot restored = FactJ.snapshot(file, session);
+
+		assertEquals("It should have run the session only once", 1, sessions);
+		assertEquals("It should have restored every object", taken.getObjects().toString(),
+				restored.getObjects().toString());
+		assertEquals("It should have saved the same objects", saved,
+				toStrings(second.received));
+		List<Person> people = restored.getObjects(Person.class);
+		assertSame("It should have kept the shared address", people.get(0).getAddress(),
+				people.get(2).getAddress());
+		assertEquals("It should have restored the final field", "ACME",
+				restored.getObjects(Company.class).get(0).getName());
+		assertEquals("It should have restored the sequences", nextId,
+				((Person) FactJ.build(Person.class)).getId());
+	}
+
+	@Test
+	public void testRestoresSequencesOfAssociations() {
+		fabricate(Person.class, "numbered",
+				sequence("id"),
+				association("address", sequence("id", 100)));
+		Runnable build = () -> FactJ.createList(Person.class, "numbered", 2);
+		FactJ.snapshot(file, build);
+		int nextId = ((Person) FactJ.build(Person.class, "numbered")).getAddress().getId();
+
+		FactJ.clear();
+		register();
+		fabricate(Person.class, "numbered",
+				sequence("id"),
+				association("address", sequence("id", 100)));
+		FactJ.snapshot(file, build);
+		assertEquals("It should have restored the sequence of the association", nextId,
+				((Person) FactJ.build(Person.class, "numbered")).getAddress().getId());
+	}
+
+	@Test
+	public void testChangedFactoriesInvalidateSnapshot() throws Exception {
+		FactJ.snapshot(file, session);
+
+		FactJ.clear();
+		fabricate(Address.class,
+				sequence("id"),
+				field("address", "Another address"));
+		fabricate(Person.class,
+				sequence("id"),
+				association("address").reuse());
+		fabricate(Company.class, () -> new Company("ACME"),
+				sequence("id"));
+		assertEquals("It shouldn't read a snapshot of other factories", null,
+				Snapshot.read(file));
+
+		Snapshot taken = FactJ.snapshot(file, session);
+		assertEquals("It should have run the session again", 2, sessions);
+		assertNotNull("It should have written a new snapshot", Snapshot.read(file));
+		assertEquals("Built wrong address", "Another address",
+				taken.getObjects(Address.class).get(0).getAddress());
+	}
+
+	@Test
+	public void testKeepsCollectionsAndDates() throws Exception {
+		registerCompany("1");
+		Runnable session = () -> FactJ.build(Company.class, "staffed");
+		FactJ.snapshot(file, session);
+
+		FactJ.clear();
+		register();
+		registerCompany("1");
+		Snapshot restored = Snapshot.read(file);
+		assertNotNull("It should have read the snapshot", restored);
+		Company company = restored.getObjects(Company.class).get(0);
+		assertEquals("It should have restored the date", LocalDate.of(2000, 1, 1),
+				company.getFounded());
+		assertEquals("It should have restored the list", 2, company.getEmployees().size());
+		assertSame("The list should reference the restored objects",
+				restored.getObjects(Person.class).get(0), company.getEmployees().get(0));
+	}
+
+	@Test
+	public void testChangedKeysInvalidateSnapshot() throws Exception {
+		registerCompany("1");
+		FactJ.snapshot(file, () -> FactJ.build(Company.class, "staffed"));
+
+		FactJ.clear();
+		register();
+		registerCompany("2");
+		assertEquals("It shouldn't read a snapshot of another version of the decorator", null,
+				Snapshot.read(file));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testRequiresKeysForCustomDecorators() {
+		fabricate(Company.class, "custom", () -> new Company("ACME"),
+				(Decorator<Company>) c -> c.setEmployees(null));
+		FactJ.snapshot(file, session);
+	}
+
+	@Test
+	public void testCorruptedFile() throws Exception {
+		FactJ.snapshot(file, session);
+		byte[] bytes = Files.readAllBytes(file);
+		Files.write(file, Arrays.copyOf(bytes, bytes.length / 2));
+		assertEquals("It should have ignored the truncated file", null, Snapshot.read(file));
+	}
+
+	private void registerCompany(String version) {
+		fabricate(Company.class, "staffed", () -> new Company("ACME"),
+				sequence("id"),
+				field("founded", LocalDate.of(2000, 1, 1)),
+				new Staff(version));
+	}
+
+	/**
+	 * Hires two people for the company.
+	 */
+	private static final class Staff implements Decorator<Company>, Snapshot.Keyed {
+		private final String version;
+
+		Staff(String version) {
+			this.version = version;
+		}
+
+		@Override
+		public void decorate(Company c) {
+			List<Person> people = new ArrayList<Person>();
+			for (Object o : FactJ.buildList(Person.class, 2))
+				people.add((Person) o);
+			c.setEmployees(people);
+		}
+
+		@Override
+		public String getSnapshotKey() {
+			return "staff-" + version;
+		}
+	}
+
+	@Test
+	public void testMissingFile() throws Exception {
+		assertEquals("It should have returned null", null, Snapshot.read(file));
+		assertFalse("It shouldn't have created the file", Files.exists(file));
+	}
+
+	private static List<String> toStrings(List<Object> objects) {
+		List<String> result = new ArrayList<String>();
+		for (Object o : objects)
+			result.add(o.toString());
+		return result;
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FactJ.setPersistence(null);
+		FactJ.clear();
+		Files.deleteIfExists(file);
+		Files.deleteIfExists(directory);
+	}
+}
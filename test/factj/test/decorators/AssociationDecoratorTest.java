@@ -3,9 +3,16 @@ package factj.test.decorators;
 import static factj.FactJHelper.field;
 import static factj.FactJHelper.sequence;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -15,10 +22,14 @@ import org.junit.runners.JUnit4;
 import factj.Decorator;
 import factj.FactJ;
 import factj.FactJHelper;
+import factj.Factory;
 import factj.decorators.AssociationDecorator;
 import factj.test.PersistenceTest;
 import factj.test.models.Address;
+import factj.test.models.Adoption;
 import factj.test.models.Address2;
+import factj.test.models.Dog;
+import factj.test.models.Owner;
 import factj.test.models.Person;
 
 @RunWith(JUnit4.class)
@@ -103,6 +114,187 @@ public class AssociationDecoratorTest {
 				((Address2)p.getAddress()).getNeighborhood());
 	}
 
+	@Test
+	public void testReusesObjectWithinScope() {
+		final PersistenceTest per = new PersistenceTest();
+		FactJ.setPersistence(per);
+
+		final Decorator<Object> d = new AssociationDecorator("address").reuse();
+		final Person p1 = new Person();
+		final Person p2 = new Person();
+		FactJ.scope(new Runnable() {
+			@Override
+			public void run() {
+				d.decorate(p1);
+				d.decorate(p2);
+			}
+		});
+		assertSame("AssociationDecorator should have reused the object", p1.getAddress(),
+				p2.getAddress());
+		assertEquals("It should have saved the object only once", 1, per.received.size());
+
+		Person p3 = FactJ.scope(() -> {
+			Person p = new Person();
+			d.decorate(p);
+			return p;
+		});
+		assertNotSame("A new scope should have a new object", p1.getAddress(), p3.getAddress());
+	}
+
+	@Test
+	public void testPicksObjectsFromPool() {
+		Decorator<Object> d = new AssociationDecorator("address").pool(2);
+		Person p1 = new Person();
+		Person p2 = new Person();
+		Person p3 = new Person();
+		d.decorate(p1);
+		d.decorate(p2);
+		d.decorate(p3);
+		assertNotSame("AssociationDecorator should have used another object of the pool",
+				p1.getAddress(), p2.getAddress());
+		assertSame("AssociationDecorator should have gone back to the first object",
+				p1.getAddress(), p3.getAddress());
+	}
+
+	@Test
+	public void testPoolsOfDifferentSizesAreNotShared() {
+		FactJHelper.fabricate(Person.class, "single", FactJHelper.association("address").reuse());
+		FactJHelper.fabricate(Person.class, "pooled",
+				FactJHelper.association("address").pool(2));
+		FactJ.scope(() -> {
+			Person single = (Person) FactJ.build(Person.class, "single");
+			Person p1 = (Person) FactJ.build(Person.class, "pooled");
+			Person p2 = (Person) FactJ.build(Person.class, "pooled");
+			assertNotSame("The pool of 2 should have used another object", p1.getAddress(),
+					p2.getAddress());
+			assertSame("The reused object should stay the same", single.getAddress(),
+					((Person) FactJ.build(Person.class, "single")).getAddress());
+		});
+	}
+
+	@Test
+	public void testPoolsOfEqualDecoratorsAreShared() {
+		FactJHelper.fabricate(Person.class, "a",
+				FactJHelper.association("address", field("address", "Shared")).reuse());
+		FactJHelper.fabricate(Person.class, "b",
+				FactJHelper.association("address", field("address", "Shared")).reuse());
+		FactJHelper.fabricate(Person.class, "c",
+				FactJHelper.association("address", field("address", "Other")).reuse());
+		FactJ.scope(() -> {
+			Address a = ((Person) FactJ.build(Person.class, "a")).getAddress();
+			assertSame("Equal decorators should have shared the pool", a,
+					((Person) FactJ.build(Person.class, "b")).getAddress());
+			assertNotSame("Other values should have used another pool", a,
+					((Person) FactJ.build(Person.class, "c")).getAddress());
+		});
+	}
+
+	@Test
+	public void testBuildsWithoutSaving() {
+		PersistenceTest per = new PersistenceTest();
+		FactJ.setPersistence(per);
+
+		Decorator<Object> d = new AssociationDecorator("address").buildOnly();
+		Person p = new Person();
+		d.decorate(p);
+		assertNotNull("AssociationDecorator did not build the object", p.getAddress());
+		assertFalse("It shouldn't have called save(Object) on persistence", per.called);
+	}
+
+	@Test
+	public void testBuildsLazily() {
+		final AtomicInteger built = new AtomicInteger();
+		FactJHelper.fabricate(Dog.class,
+				sequence("id"),
+				field("name", "Rex"),
+				new Decorator<Dog>() {
+					@Override
+					public void decorate(Dog d) {
+						built.incrementAndGet();
+					}
+				});
+		FactJHelper.fabricate(Owner.class,
+				field("name", "Someone"),
+				FactJHelper.association("pet", Dog.class).lazy(),
+				FactJHelper.association("address").lazy());
+
+		Owner o = (Owner) FactJ.build(Owner.class);
+		assertEquals("It shouldn't have built the association yet", 0, built.get());
+		assertEquals("It should have built the association when used", "Rex",
+				o.getPet().getName());
+		assertEquals("It should have built the association only once", "Rex",
+				o.getPet().getName());
+		assertEquals("It should have built the association only once", 1, built.get());
+		assertSame("It should have built the association only once", o.getAddress().get(),
+				o.getAddress().get());
+		assertEquals("AssociationDecorator did not build the correct object", "Street X",
+				o.getAddress().get().getAddress());
+	}
+
+	@Test
+	public void testLazyProxyObjectMethodsDontBuild() {
+		final AtomicInteger built = new AtomicInteger();
+		FactJHelper.fabricate(Dog.class,
+				field("name", "Rex"),
+				new Decorator<Dog>() {
+					@Override
+					public void decorate(Dog d) {
+						built.incrementAndGet();
+					}
+				});
+		FactJHelper.fabricate(Owner.class, FactJHelper.association("pet", Dog.class).lazy());
+
+		Owner o = (Owner) FactJ.build(Owner.class);
+		assertTrue("Wrong toString: " + o.getPet(), o.getPet().toString().contains("not built"));
+		assertEquals("The proxy should equal itself", o.getPet(), o.getPet());
+		assertEquals("Wrong hash code", System.identityHashCode(o.getPet()),
+				o.getPet().hashCode());
+		assertEquals("It shouldn't have built the association", 0, built.get());
+	}
+
+	@Test
+	public void testBuildsLazyAssociationsBeforeSavingOwner() {
+		PersistenceTest per = new PersistenceTest();
+		FactJ.setPersistence(per);
+		FactJHelper.fabricate(Dog.class,
+				sequence("id"),
+				field("name", "Rex"));
+		FactJHelper.fabricate(Owner.class,
+				FactJHelper.association("pet", Dog.class).lazy(),
+				FactJHelper.association("address").lazy());
+
+		Owner o = (Owner) FactJ.create(Owner.class);
+		assertEquals("It should have saved the associations before the owner", 3,
+				per.received.size());
+		assertTrue("It should have saved the pet first", per.received.get(0) instanceof Dog);
+		assertSame("It should have saved the address second", o.getAddress().get(),
+				per.received.get(1));
+		assertSame("It should have saved the owner last", o, per.received.get(2));
+	}
+
+	@Test
+	public void testSavesLazyAssociationsOfParallelAssociationsAfterTheBuild() {
+		PersistenceTest per = new PersistenceTest();
+		FactJ.setPersistence(per);
+		FactJHelper.fabricate(Dog.class, sequence("id"));
+		FactJHelper.fabricate(Owner.class, FactJHelper.association("address").lazy());
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Factory f = new Factory(Adoption.class,
+					FactJHelper.association("owner").buildOnly(),
+					FactJHelper.association("dog")).setAssociationExecutor(executor);
+			Adoption a = (Adoption) f.fabricate();
+			assertEquals("It should have saved only the dog", 1, per.received.size());
+
+			Address address = a.getOwner().getAddress().get();
+			assertEquals("It should have saved the address when built", 2,
+					per.received.size());
+			assertSame("It should have saved the address", address, per.received.get(1));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
 	@After
 	public void tearDown() throws Exception {
 		FactJ.clear();
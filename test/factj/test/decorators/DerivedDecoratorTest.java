@@ -0,0 +1,130 @@
+package factj.test.decorators;
+
+import static factj.FactJHelper.derived;
+import static factj.FactJHelper.field;
+import static factj.FactJHelper.sequence;
+import static factj.FactJHelper.with;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import factj.Decorator;
+import factj.FactJ;
+import factj.FactJHelper;
+import factj.Factory;
+import factj.Factory.Strategy;
+import factj.test.models.Person;
+
+@RunWith(JUnit4.class)
+public class DerivedDecoratorTest {
+	@Test
+	public void testDerivedFieldsRunAfterTheirDependencies() {
+		FactJHelper.fabricate(Person.class,
+				derived("email", values -> values[0] + "@company.com", "name"),
+				derived("name", values -> "person" + values[0], "id"),
+				sequence("id"));
+		Person p = (Person) FactJ.build(Person.class);
+		assertEquals("Built wrong name", "person1", p.getName());
+		assertEquals("Built wrong email", "person1@company.com", p.getEmail());
+	}
+
+	@Test
+	public void testCustomDecoratorsSeeDerivedFields() {
+		FactJHelper.fabricate(Person.class,
+				sequence("id"),
+				derived("name", values -> "person" + values[0], "id"),
+				new Decorator<Person>() {
+					@Override
+					public void decorate(Person p) {
+						p.setEmail(p.getName() + "@company.com");
+					}
+				});
+		assertEquals("The decorator should have seen the derived name", "person1@company.com",
+				((Person) FactJ.build(Person.class)).getEmail());
+	}
+
+	@Test
+	public void testDerivedFieldsWaitForTheirDependencies() {
+		FactJHelper.fabricate(Person.class,
+				derived("name", values -> "person" + values[0], "id"),
+				new Decorator<Person>() {
+					@Override
+					public void decorate(Person p) {
+						p.setEmail(p.getName() + "@company.com");
+					}
+				},
+				sequence("id"));
+		Person p = (Person) FactJ.build(Person.class);
+		assertEquals("The derived field should have run after its dependency", "person1",
+				p.getName());
+		assertEquals("The decorator should have run before the derived field",
+				"null@company.com", p.getEmail());
+	}
+
+	@Test
+	public void testDerivedFieldsFollowCustomDecoratorsDeclaredBefore() {
+		FactJHelper.fabricate(Person.class,
+				new Decorator<Person>() {
+					@Override
+					public void decorate(Person p) {
+						p.setName("custom");
+					}
+				},
+				derived("email", values -> values[0] + "@company.com", "name"));
+		assertEquals("Built wrong email", "custom@company.com",
+				((Person) FactJ.build(Person.class)).getEmail());
+	}
+
+	@Test
+	public void testDerivesOncePerBuild() {
+		AtomicInteger derivations = new AtomicInteger();
+		Factory f = new Factory(Person.class,
+				field("name", "X"),
+				derived("email", values -> {
+					derivations.incrementAndGet();
+					return values[0] + "." + values[1];
+				}, "name", "id"),
+				sequence("id")).setStrategy(Strategy.PROTOTYPE);
+		assertEquals("Built wrong email", "X.1", ((Person) f.fabricate()).getEmail());
+		assertEquals("Built wrong email", "X.2", ((Person) f.fabricate()).getEmail());
+		assertEquals("It should have derived once per build", 2, derivations.get());
+	}
+
+	@Test
+	public void testOverriddenFieldsAreNotDerived() {
+		FactJHelper.fabricate(Person.class,
+				sequence("id"),
+				derived("name", values -> "person" + values[0], "id"),
+				derived("email", values -> values[0] + "@company.com", "name"));
+		Person p = (Person) FactJ.build(Person.class, with("name", "X"));
+		assertEquals("Built wrong name", "X", p.getName());
+		assertEquals("It should have derived from the overridden value", "X@company.com",
+				p.getEmail());
+	}
+
+	@Test
+	public void testFailsOnCycles() {
+		Factory f = new Factory(Person.class,
+				derived("name", values -> values[0], "email"),
+				derived("email", values -> values[0], "name"));
+		try {
+			f.fabricate();
+			fail("It should have failed on the cycle");
+		} catch (IllegalStateException e) {
+			assertTrue("Wrong message: " + e.getMessage(),
+					e.getMessage().endsWith("name -> email -> name"));
+		}
+	}
+
+	@After
+	public void tearDown() {
+		FactJ.clear();
+	}
+}
@@ -1,6 +1,8 @@
 package factj.test.decorators;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -8,6 +10,7 @@ import org.junit.runners.JUnit4;
 
 import factj.Decorator;
 import factj.decorators.FieldDecorator;
+import factj.test.models.Address2;
 import factj.test.models.Person;
 
 @RunWith(JUnit4.class)
@@ -20,4 +23,34 @@ public class FieldDecoratorTest {
 		assertEquals("FieldDecorator did not give the correct value", "This is a test!",
 				p.getName());
 	}
+
+	@Test
+	public void testGivesValueToInheritedField() {
+		Decorator<Object> d = new FieldDecorator("address", "Street Z");
+		Address2 a = new Address2();
+		d.decorate(a);
+		assertEquals("FieldDecorator did not give the correct value", "Street Z", a.getAddress());
+		a = new Address2();
+		d.decorate(a);
+		assertEquals("FieldDecorator did not give the correct value", "Street Z", a.getAddress());
+	}
+
+	@Test
+	public void testGivesValueToPrimitiveField() {
+		Decorator<Object> d = new FieldDecorator("id", 7);
+		Person p = new Person();
+		d.decorate(p);
+		assertEquals("FieldDecorator did not give the correct value", 7, p.getId());
+	}
+
+	@Test
+	public void testFailsOnUnknownField() {
+		Decorator<Object> d = new FieldDecorator("nmae", "This is a test!");
+		try {
+			d.decorate(new Person());
+			fail("FieldDecorator should have failed on an unknown field");
+		} catch (IllegalArgumentException e) {
+			assertTrue("The error should name the missing field", e.getMessage().contains("nmae"));
+		}
+	}
 }
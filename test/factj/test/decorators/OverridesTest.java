@@ -0,0 +1,120 @@
+package factj.test.decorators;
+
+import static factj.FactJHelper.association;
+import static factj.FactJHelper.field;
+import static factj.FactJHelper.sequence;
+import static factj.FactJHelper.with;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import factj.Decorator;
+import factj.FactJ;
+import factj.FactJHelper;
+import factj.test.models.Address;
+import factj.test.models.Person;
+
+@RunWith(JUnit4.class)
+public class OverridesTest {
+	@Before
+	public void setUp() throws Exception {
+		FactJHelper.fabricate(Address.class,
+				sequence("id"),
+				field("address", "Street X"));
+		FactJHelper.fabricate(Person.class,
+				sequence("id"),
+				field("name", "A person"),
+				new Decorator<Person>() {
+					@Override
+					public void decorate(Person p) {
+						p.setEmail(p.getName() + "@company.com");
+					}
+				},
+				association("address"));
+	}
+
+	@Test
+	public void testOverrides() {
+		Person p = (Person) FactJ.build(Person.class, with("name", "X").and("id", 42));
+		assertEquals("It should have overridden the name", "X", p.getName());
+		assertEquals("It should have overridden the id", 42, p.getId());
+		assertEquals("The decorators should see the overridden values", "X@company.com",
+				p.getEmail());
+		assertEquals("Built wrong address", 1, p.getAddress().getId());
+
+		assertEquals("The overridden sequence should have given no value", 1,
+				((Person) FactJ.build(Person.class)).getId());
+	}
+
+	@Test
+	public void testOverriddenAssociationIsNotBuilt() {
+		Address a = new Address();
+		Person p = (Person) FactJ.build(Person.class, with("address", a));
+		assertSame("It should have used the address given", a, p.getAddress());
+		assertEquals("It shouldn't have built an address", 1,
+				((Address) FactJ.build(Address.class)).getId());
+
+		p = (Person) FactJ.build(Person.class, with("address", null).and("name", "Y"));
+		assertNull("It should have overridden the address with null", p.getAddress());
+		assertEquals("Built wrong name", "Y", p.getName());
+	}
+
+	@Test
+	public void testCustomDecoratorsDontReplaceOverriddenValues() {
+		FactJHelper.fabricate(Person.class, "renamed",
+				field("name", "A person"),
+				new Decorator<Person>() {
+					@Override
+					public void decorate(Person p) {
+						p.setEmail(p.getName() + "@company.com");
+						p.setName("Renamed");
+					}
+				});
+		Person p = (Person) FactJ.build(Person.class, "renamed", with("name", "X"));
+		assertEquals("It should have kept the overridden name", "X", p.getName());
+		assertEquals("The decorator should have seen the overridden name", "X@company.com",
+				p.getEmail());
+	}
+
+	@Test
+	public void testFieldsInAnyOrder() {
+		Person p = (Person) FactJ.build(Person.class, with("name", "X").and("id", 42));
+		assertEquals("Built wrong name", "X", p.getName());
+		assertEquals("Built wrong id", 42, p.getId());
+
+		p = (Person) FactJ.build(Person.class, with("id", 43).and("name", "Y"));
+		assertEquals("Built wrong name", "Y", p.getName());
+		assertEquals("Built wrong id", 43, p.getId());
+		assertEquals("Built wrong email", "Y@company.com", p.getEmail());
+	}
+
+	@Test
+	public void testOverridesWithOtherDecorators() {
+		Person p = FactJ.factory(Person.class).build(with("name", "Z"));
+		assertEquals("Built wrong name", "Z", p.getName());
+
+		p = (Person) FactJ.build(Person.class, new Decorator<Person>() {
+			@Override
+			public void decorate(Person p) {
+				p.setEmail("another");
+			}
+		}, with("name", "W"));
+		assertEquals("Built wrong name", "W", p.getName());
+		assertEquals("It should have called the other decorator", "another", p.getEmail());
+
+		p = new Person();
+		with("name", "V").decorate(p);
+		assertEquals("It should decorate objects already built", "V", p.getName());
+	}
+
+	@After
+	public void tearDown() {
+		FactJ.clear();
+	}
+}
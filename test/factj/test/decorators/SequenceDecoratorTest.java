@@ -1,6 +1,10 @@
 package factj.test.decorators;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -47,4 +51,43 @@ public class SequenceDecoratorTest {
 		d.decorate(p);
 		assertEquals("SequenceDecorator did not give the correct value", 16, p.getId());
 	}
+
+	@Test
+	public void testGivesUniqueValuesAcrossThreads() throws Exception {
+		assertUniqueAcrossThreads(new SequenceDecorator("id"));
+	}
+
+	@Test
+	public void testGivesUniqueValuesAcrossThreadsReservingBlocks() throws Exception {
+		SequenceDecorator d = new SequenceDecorator("id", null, 1, 100);
+		Person p = new Person();
+		d.decorate(p);
+		assertEquals("SequenceDecorator did not give the correct value", 1, p.getId());
+		d.decorate(p);
+		assertEquals("SequenceDecorator did not give the correct value", 2, p.getId());
+		assertUniqueAcrossThreads(d);
+	}
+
+	private void assertUniqueAcrossThreads(final Decorator<Object> d) throws Exception {
+		final Set<Integer> ids = ConcurrentHashMap.newKeySet();
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 1000; j++) {
+						Person p = new Person();
+						d.decorate(p);
+						ids.add(p.getId());
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread t : threads)
+			t.join();
+		assertEquals("SequenceDecorator gave repeated values", 4000, ids.size());
+		for (int id : ids)
+			assertTrue("SequenceDecorator gave a value out of the sequence", id > 0);
+	}
 }
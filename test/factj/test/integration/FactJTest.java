@@ -6,7 +6,18 @@ import static factj.FactJHelper.field;
 import static factj.FactJHelper.sequence;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 import org.junit.After;
 import org.junit.Before;
@@ -14,11 +25,20 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import factj.BuildContext;
+import factj.ChunkedSink;
 import factj.Decorator;
 import factj.FactJ;
+import factj.FactJ.CyclePolicy;
+import factj.FactoryHandle;
 import factj.decorators.SequenceDecorator.Sequence;
+import factj.test.BatchPersistenceTest;
 import factj.test.PersistenceTest;
 import factj.test.models.Address;
+import factj.test.models.Company;
+import factj.test.models.Department;
+import factj.test.models.Employee;
+import factj.test.models.Owner;
 import factj.test.models.Person;
 
 @RunWith(JUnit4.class)
@@ -92,8 +112,330 @@ public class FactJTest {
 				lastReceived).getAddress());
 	}
 
+	@Test
+	public void testBuildList() {
+		List<Object> people = FactJ.buildList(Person.class, 3);
+		assertEquals("Built wrong number of objects", 3, people.size());
+		for (int i = 0; i < 3; i++) {
+			Person p = (Person) people.get(i);
+			assertEquals("Built wrong id", 5 + i, p.getId());
+			assertEquals("Built wrong email", "user" + (i + 1) + "@company.com", p.getEmail());
+			assertEquals("Built wrong address id", i + 1, p.getAddress().getId());
+		}
+		assertNull("It shouldn't have found a factory", FactJ.buildList(Person.class, "unknown", 2));
+	}
+
+	@Test
+	public void testCreateList() {
+		PersistenceTest p = new PersistenceTest();
+		FactJ.setPersistence(p);
+
+		List<Object> addresses = FactJ.createList(Address.class, 2, new Decorator<Address>() {
+			@Override
+			public void decorate(Address a) {
+				a.setAddress("another");
+			}
+		});
+		assertEquals("It should have saved every object", addresses, p.received);
+		assertEquals("It should have customized the objects", "another",
+				((Address) p.lastReceived).getAddress());
+	}
+
+	@Test
+	public void testFactoryHandle() {
+		PersistenceTest p = new PersistenceTest();
+		FactJ.setPersistence(p);
+
+		FactoryHandle<Person> people = FactJ.factory(Person.class);
+		Person built = people.build();
+		assertEquals("Built wrong id", 5, built.getId());
+		assertFalse("It shouldn't have saved the person", p.received.contains(built));
+
+		Person created = people.create(new Decorator<Object>() {
+			@Override
+			public void decorate(Object o) {
+				((Person) o).setName("another");
+			}
+		});
+		assertEquals("It should have customized the object", "another", created.getName());
+		assertSame("It should have saved the person", created, p.lastReceived);
+		assertEquals("Built wrong ids", Arrays.asList(7, 8), people.buildList(2).stream()
+				.map(Person::getId).collect(Collectors.toList()));
+		assertNull("It shouldn't have found a factory", FactJ.factory(Person.class, "unknown"));
+	}
+
+	@Test
+	public void testStream() {
+		List<Person> people = FactJ.stream(Person.class, 3)
+				.collect(Collectors.<Person>toList());
+		assertEquals("Built wrong number of objects", 3, people.size());
+		assertEquals("Built wrong email", "user3@company.com", people.get(2).getEmail());
+		assertEquals("Built wrong id", 7, people.get(2).getId());
+		assertEquals("It should have kept the sequence going", 8,
+				((Person) FactJ.build(Person.class)).getId());
+
+		assertEquals("Built wrong number of objects", 2,
+				FactJ.stream(Address.class, "").limit(2).count());
+	}
+
+	@Test
+	public void testParallelStreamKeepsSequenceOrder() {
+		List<Person> people = FactJ.stream(Person.class, 1000).parallel()
+				.collect(Collectors.<Person>toList());
+		for (int i = 0; i < people.size(); i++) {
+			assertEquals("Built wrong id", i + 5, people.get(i).getId());
+			assertEquals("Built wrong email", "user" + (i + 1) + "@company.com",
+					people.get(i).getEmail());
+		}
+	}
+
+	@Test
+	public void testShortCircuitedStreamsReserveLittle() {
+		assertEquals("Built wrong id", 5, FactJ.stream(Person.class, Long.MAX_VALUE)
+				.findFirst().get().getId());
+		assertTrue("It should have reserved only the first chunk",
+				((Person) FactJ.build(Person.class)).getId() < 100);
+	}
+
+	@Test
+	public void testSink() {
+		BatchPersistenceTest p = new BatchPersistenceTest();
+		FactJ.setPersistence(p);
+
+		try (ChunkedSink sink = FactJ.sink(2)) {
+			FactJ.stream(Address.class, 5).forEach(sink);
+			assertEquals("It should have saved the full chunks only", 2, p.batches.size());
+		}
+		assertEquals("It should have saved the rest when closed", 3, p.batches.size());
+		assertEquals("It should have saved every object", 5, p.received.size());
+		assertEquals("It should have saved in order", 5,
+				((Address) p.lastReceived).getId());
+	}
+
+	@Test
+	public void testSinkSavesLazyAssociationsFirst() {
+		PersistenceTest p = new PersistenceTest();
+		FactJ.setPersistence(p);
+		fabricate(Owner.class, association("address").lazy());
+
+		try (ChunkedSink sink = FactJ.sink(2)) {
+			FactJ.stream(Owner.class, 2).forEach(sink);
+		}
+		assertEquals("It should have saved the owners and their addresses", 4,
+				p.received.size());
+		assertSame("It should have saved the lazy association before its owner",
+				((Owner) p.received.get(3)).getAddress().get(), p.received.get(1));
+	}
+
+	@Test
+	public void testBatchPersistence() {
+		BatchPersistenceTest p = new BatchPersistenceTest();
+		FactJ.setPersistence(p);
+		FactJ.setBatchSize(4);
+
+		Person p1 = (Person) FactJ.create(Person.class);
+		assertFalse("It shouldn't have saved before the batch is full", p.called);
+		Person p2 = (Person) FactJ.create(Person.class);
+		assertEquals("It should have saved the whole batch at once", 1, p.batches.size());
+		assertEquals("It should have saved associations before their owners",
+				Arrays.asList(p1.getAddress(), p1, p2.getAddress(), p2), p.batches.get(0));
+
+		Address a = (Address) FactJ.create(Address.class);
+		assertEquals("It shouldn't have saved before the batch is full", 1, p.batches.size());
+		FactJ.flush();
+		assertEquals("It should have saved the pending objects", Arrays.asList((Object) a),
+				p.batches.get(1));
+	}
+
+	@Test
+	public void testClearDiscardsPendingObjects() throws Exception {
+		BatchPersistenceTest p = new BatchPersistenceTest();
+		FactJ.setPersistence(p);
+		FactJ.setBatchSize(10);
+		FactJ.create(Address.class);
+		FactJ.clear();
+		setUp();
+
+		BatchPersistenceTest next = new BatchPersistenceTest();
+		FactJ.setPersistence(next);
+		Address a = (Address) FactJ.create(Address.class);
+		FactJ.flush();
+		assertFalse("It shouldn't have saved the discarded objects", p.called);
+		assertEquals("It should have turned the batching mode off",
+				Arrays.asList((Object) a), next.received);
+		assertTrue("It shouldn't have batched", next.batches.isEmpty());
+	}
+
+	@Test
+	public void testBuildContext() {
+		final List<Object> targets = new ArrayList<Object>();
+		fabricate(Address.class, "withContext",
+				new Decorator<Address>() {
+					@Override
+					public void decorate(Address a) {
+					}
+
+					@Override
+					public void decorate(Address a, BuildContext context) {
+						assertEquals("Wrong depth", 1, context.getDepth());
+						assertSame("Wrong target", a, context.getTarget());
+						targets.add(context.getParent().getTarget());
+					}
+				});
+		fabricate(Person.class, "withContext",
+				association("address", "withContext"));
+
+		Person p = (Person) FactJ.build(Person.class, "withContext");
+		assertEquals("The association should have seen its owner", Arrays.asList((Object) p),
+				targets);
+	}
+
+	@Test
+	public void testConcurrentBuilds() throws Exception {
+		final Set<Integer> ids = ConcurrentHashMap.newKeySet();
+		final Set<Integer> addressIds = ConcurrentHashMap.newKeySet();
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 500; j++) {
+						Person p = (Person) FactJ.build(Person.class);
+						ids.add(p.getId());
+						addressIds.add(p.getAddress().getId());
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread t : threads)
+			t.join();
+		assertEquals("It should have given unique ids", 2000, ids.size());
+		assertEquals("It should have built one address per person", 2000, addressIds.size());
+	}
+
+	@Test
+	public void testInstantiator() {
+		fabricate(Company.class, () -> new Company("ACME"),
+				sequence("id"));
+
+		Company c = (Company) FactJ.build(Company.class);
+		assertEquals("Built wrong name", "ACME", c.getName());
+		assertEquals("Built wrong id", 1, c.getId());
+	}
+
+	@Test
+	public void testFailsWithoutConstructorWithoutArguments() {
+		fabricate(Company.class, "noInstantiator",
+				sequence("id"));
+		try {
+			FactJ.build(Company.class, "noInstantiator");
+			fail("It should have failed to instantiate the object");
+		} catch (IllegalStateException e) {
+			assertTrue("The error should name the Class",
+					e.getMessage().contains(Company.class.getName()));
+		}
+	}
+
+	@Test
+	public void testFailsOnCycles() {
+		fabricate(Employee.class,
+				field("name", "An employee"),
+				association("department"));
+		fabricate(Department.class,
+				field("name", "A department"),
+				association("manager"));
+		try {
+			FactJ.build(Employee.class);
+			fail("It should have failed on the cycle");
+		} catch (IllegalStateException e) {
+			assertTrue("The error should show the cycle",
+					e.getMessage().contains("Employee -> Department -> Employee"));
+		}
+	}
+
+	@Test
+	public void testBuildsLazySelfAssociations() {
+		fabricate(Employee.class,
+				sequence("id"),
+				association("mentor", Employee.class).lazy().buildOnly());
+		Employee e = (Employee) FactJ.build(Employee.class);
+		Employee mentor = e.getMentor().get();
+		assertEquals("Built wrong mentor", 2, mentor.getId());
+		assertEquals("Built wrong mentor of the mentor", 3, mentor.getMentor().get().getId());
+	}
+
+	@Test
+	public void testCustomDecoratorsMayRepeatFactories() {
+		fabricate(Employee.class,
+				field("name", "An employee"),
+				new Decorator<Employee>() {
+					@Override
+					public void decorate(Employee e, BuildContext context) {
+						if (context.getDepth() < 2)
+							context.build(Employee.class, "");
+					}
+
+					@Override
+					public void decorate(Employee e) {
+					}
+				});
+		assertNotNull("It should have built the object", FactJ.build(Employee.class));
+	}
+
+	@Test
+	public void testLinksCycles() {
+		FactJ.setCyclePolicy(CyclePolicy.LINK);
+		PersistenceTest p = new PersistenceTest();
+		FactJ.setPersistence(p);
+		fabricate(Employee.class,
+				field("name", "An employee"),
+				association("department"));
+		fabricate(Department.class,
+				field("name", "A department"),
+				association("manager"));
+
+		Employee e = (Employee) FactJ.create(Employee.class);
+		assertSame("It should have linked the cycle", e, e.getDepartment().getManager());
+		assertEquals("It should have saved each object once",
+				Arrays.asList(e.getDepartment(), e), p.received);
+	}
+
+	@Test
+	public void testLimitsDepth() {
+		FactJ.setMaxDepth(1);
+		assertNotNull("It should have built the association", FactJ.build(Person.class));
+		FactJ.setMaxDepth(0);
+		try {
+			FactJ.build(Person.class);
+			fail("It should have failed on the association");
+		} catch (IllegalStateException e) {
+			assertTrue("The error should show the path",
+					e.getMessage().contains("Person -> Address"));
+		}
+	}
+
+	@Test
+	public void testFirstRegisteredFactoryWins() {
+		fabricate(Address.class,
+				field("address", "Another address"));
+		fabricate(Address.class, "named",
+				field("address", "Named address"));
+		fabricate(Address.class, "named",
+				field("address", "Another named address"));
+
+		assertEquals("It should have used the first factory", "An address",
+				((Address) FactJ.build(Address.class)).getAddress());
+		assertEquals("It should have used the first named factory", "Named address",
+				((Address) FactJ.build(Address.class, "named")).getAddress());
+		assertNull("It shouldn't have found a factory", FactJ.build(Address.class, "unknown"));
+	}
+
 	@After
 	public void tearDown() throws Exception {
+		FactJ.setBatchSize(0);
+		FactJ.setCyclePolicy(CyclePolicy.FAIL);
+		FactJ.setMaxDepth(Integer.MAX_VALUE);
 		FactJ.clear();
 	}
 }
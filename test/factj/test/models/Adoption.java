@@ -0,0 +1,14 @@
+package factj.test.models;
+
+public class Adoption {
+	private Owner owner;
+	private Dog dog;
+
+	public Owner getOwner() {
+		return owner;
+	}
+
+	public Dog getDog() {
+		return dog;
+	}
+}
@@ -0,0 +1,33 @@
+package factj.test.models;
+
+import java.time.LocalDate;
+import java.util.List;
+
+public class Company {
+	private int id;
+	private final String name;
+	private LocalDate founded;
+	private List<Person> employees;
+	public Company(String name) {
+		this.name = name;
+	}
+	public int getId() {
+		return id;
+	}
+	public String getName() {
+		return name;
+	}
+	public LocalDate getFounded() {
+		return founded;
+	}
+	public List<Person> getEmployees() {
+		return employees;
+	}
+	public void setEmployees(List<Person> employees) {
+		this.employees = employees;
+	}
+	@Override
+	public String toString() {
+		return "Company [id=" + id + ", name=" + name + "]";
+	}
+}
@@ -0,0 +1,12 @@
+package factj.test.models;
+
+public class Department {
+	private String name;
+	private Employee manager;
+	public String getName() {
+		return name;
+	}
+	public Employee getManager() {
+		return manager;
+	}
+}
@@ -0,0 +1,17 @@
+package factj.test.models;
+
+public class Dog implements Pet {
+	private int id;
+	private String name;
+	public int getId() {
+		return id;
+	}
+	@Override
+	public String getName() {
+		return name;
+	}
+	@Override
+	public String toString() {
+		return "Dog [id=" + id + ", name=" + name + "]";
+	}
+}
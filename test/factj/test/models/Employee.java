@@ -0,0 +1,22 @@
+package factj.test.models;
+
+import java.util.function.Supplier;
+
+public class Employee {
+	private int id;
+	private String name;
+	private Department department;
+	private Supplier<Employee> mentor;
+	public int getId() {
+		return id;
+	}
+	public String getName() {
+		return name;
+	}
+	public Department getDepartment() {
+		return department;
+	}
+	public Supplier<Employee> getMentor() {
+		return mentor;
+	}
+}
@@ -0,0 +1,18 @@
+package factj.test.models;
+
+import java.util.function.Supplier;
+
+public class Owner {
+	private String name;
+	private Pet pet;
+	private Supplier<Address> address;
+	public String getName() {
+		return name;
+	}
+	public Pet getPet() {
+		return pet;
+	}
+	public Supplier<Address> getAddress() {
+		return address;
+	}
+}
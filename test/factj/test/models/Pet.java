@@ -0,0 +1,5 @@
+package factj.test.models;
+
+public interface Pet {
+	public String getName();
+}
@@ -0,0 +1,32 @@
+package factj.test.models;
+
+public class Product implements Cloneable {
+	private int id;
+	private String name;
+	private String description;
+	private double price;
+	public int getId() {
+		return id;
+	}
+	public String getName() {
+		return name;
+	}
+	public String getDescription() {
+		return description;
+	}
+	public double getPrice() {
+		return price;
+	}
+	@Override
+	public Product clone() {
+		try {
+			return (Product) super.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new AssertionError(e);
+		}
+	}
+	@Override
+	public String toString() {
+		return "Product [id=" + id + ", name=" + name + ", price=" + price + "]";
+	}
+}
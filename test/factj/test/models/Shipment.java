@@ -0,0 +1,30 @@
+package factj.test.models;
+
+public class Shipment {
+	private int id;
+	private Person receiver;
+	private Product product;
+	private Address origin;
+
+	public int getId() {
+		return id;
+	}
+
+	public Person getReceiver() {
+		return receiver;
+	}
+
+	public Product getProduct() {
+		return product;
+	}
+
+	public Address getOrigin() {
+		return origin;
+	}
+
+	@Override
+	public String toString() {
+		return "Shipment [id=" + id + ", receiver=" + receiver + ", product=" + product
+				+ ", origin=" + origin + "]";
+	}
+}
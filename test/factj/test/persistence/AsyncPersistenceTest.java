@@ -0,0 +1,108 @@
+package factj.test.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import factj.Persistence;
+import factj.persistence.AsyncPersistence;
+import factj.test.BatchPersistenceTest;
+import factj.test.PersistenceTest;
+
+@RunWith(JUnit4.class)
+public class AsyncPersistenceTest {
+	@Test
+	public void testSavesInOrder() {
+		BatchPersistenceTest p = new BatchPersistenceTest();
+		AsyncPersistence async = new AsyncPersistence(p);
+		List<Object> expected = new ArrayList<Object>();
+		for (int i = 0; i < 100; i++) {
+			async.save(i);
+			expected.add(i);
+		}
+		async.saveAll(Arrays.<Object>asList(100, 101));
+		expected.addAll(Arrays.<Object>asList(100, 101));
+		async.close();
+
+		assertEquals("It should have saved everything in order", expected, p.received);
+		assertEquals("It should have kept the batch", 1, p.batches.size());
+	}
+
+	@Test
+	public void testErrorsAreThrownAtFlush() {
+		final RuntimeException error = new RuntimeException("Database is down");
+		AsyncPersistence async = new AsyncPersistence(new Persistence() {
+			@Override
+			public void save(Object o) {
+				throw error;
+			}
+		});
+		async.save("first");
+		async.save("second");
+		try {
+			async.flush();
+			fail("It should have thrown the error");
+		} catch (RuntimeException e) {
+			assertSame("It should have thrown the first error", error, e);
+		}
+		async.flush();
+		async.close();
+	}
+
+	@Test
+	public void testBackpressure() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		final PersistenceTest p = new PersistenceTest() {
+			@Override
+			public void save(Object o) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+				super.save(o);
+			}
+		};
+		final AsyncPersistence async = new AsyncPersistence(p, 1, 1);
+		final CountDownLatch saved = new CountDownLatch(1);
+		Thread producer = new Thread() {
+			@Override
+			public void run() {
+				for (int i = 0; i < 3; i++)
+					async.save(i);
+				saved.countDown();
+			}
+		};
+		producer.start();
+		assertFalse("It should have waited for room in the queue",
+				saved.await(200, TimeUnit.MILLISECONDS));
+		release.countDown();
+		assertTrue("It should have saved after the writer caught up",
+				saved.await(5, TimeUnit.SECONDS));
+		async.close();
+		assertEquals("It should have saved every object", 3, p.received.size());
+	}
+
+	@Test
+	public void testClose() {
+		AsyncPersistence async = new AsyncPersistence(new PersistenceTest(), 10, 4);
+		async.close();
+		try {
+			async.save("late");
+			fail("It shouldn't save after being closed");
+		} catch (IllegalStateException e) {
+		}
+	}
+}
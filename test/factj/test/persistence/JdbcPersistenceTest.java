@@ -0,0 +1,218 @@
+package factj.test.persistence;
+
+import static factj.FactJHelper.field;
+import static factj.FactJHelper.sequence;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import factj.FactJ;
+import factj.FactJHelper;
+import factj.persistence.JdbcPersistence;
+import factj.test.models.Address;
+import factj.test.models.Dog;
+import factj.test.models.Owner;
+import factj.test.models.Person;
+import factj.test.models.Pet;
+
+@RunWith(JUnit4.class)
+public class JdbcPersistenceTest {
+	private List<String> statements;
+	private List<List<Object>> rows;
+	private List<Integer> executions;
+	private JdbcPersistence persistence;
+
+	@Before
+	public void setUp() throws Exception {
+		statements = new ArrayList<String>();
+		rows = new ArrayList<List<Object>>();
+		executions = new ArrayList<Integer>();
+		persistence = new JdbcPersistence(connection());
+	}
+
+	@Test
+	public void testInsertsByConvention() {
+		Address a = new Address();
+		a.setId(3);
+		a.setAddress("Street X");
+		Person p = new Person();
+		p.setId(7);
+		p.setName("Diego");
+		p.setAddress(a);
+		persistence.saveAll(Arrays.<Object>asList(a, p));
+
+		assertEquals("Built wrong statements", Arrays.asList(
+				"INSERT INTO address (id, address) VALUES (?, ?)",
+				"INSERT INTO person (id, name, email, address_id) VALUES (?, ?, ?, ?)"),
+				statements);
+		assertEquals("Bound wrong values", Arrays.<Object>asList(3, "Street X"), rows.get(0));
+		assertEquals("Bound wrong values", Arrays.<Object>asList(7, "Diego", null, 3),
+				rows.get(1));
+	}
+
+	@Test
+	public void testGroupsRowsPerTable() {
+		List<Object> objects = new ArrayList<Object>();
+		for (int i = 1; i <= 5; i++) {
+			Address a = new Address();
+			a.setId(i);
+			Person p = new Person();
+			p.setId(i);
+			p.setAddress(a);
+			objects.add(a);
+			objects.add(p);
+		}
+		persistence.setBatchSize(2);
+		persistence.saveAll(objects);
+
+		assertEquals("It should have prepared a statement per table", 2, statements.size());
+		assertEquals("It should have sent the rows in batches",
+				Arrays.asList(2, 2, 1, 2, 2, 1), executions);
+		assertEquals("It should have inserted the addresses first", 2, rows.get(4).size());
+		assertEquals("It should have inserted the people last", 4, rows.get(5).size());
+		assertEquals("It should have inserted every row", 10, rows.size());
+	}
+
+	@Test
+	public void testInsertsReferencedTablesFirst() {
+		Address a = new Address();
+		a.setId(3);
+		Person p = new Person();
+		p.setAddress(a);
+		persistence.saveAll(Arrays.<Object>asList(p, a));
+
+		assertEquals("It should have inserted the address first",
+				"INSERT INTO address (id, address) VALUES (?, ?)", statements.get(0));
+	}
+
+	@Test
+	public void testSavesIdsOfLazyAssociations() {
+		FactJHelper.fabricate(Dog.class,
+				sequence("id"));
+		FactJHelper.fabricate(Owner.class,
+				field("name", "Someone"),
+				FactJHelper.association("pet", Dog.class).lazy().buildOnly());
+		persistence.save(FactJ.build(Owner.class));
+
+		assertEquals("Built wrong statement",
+				"INSERT INTO owner (name, pet_id) VALUES (?, ?)", statements.get(0));
+		assertEquals("Bound wrong values", Arrays.<Object>asList("Someone", 1), rows.get(0));
+	}
+
+	@Test
+	public void testReusesStatements() {
+		persistence.save(new Address());
+		persistence.save(new Address());
+		persistence.saveAll(Arrays.<Object>asList(new Address(), new Address()));
+
+		assertEquals("It should have prepared the statement once", 1, statements.size());
+		assertEquals("It should have inserted every row", 4, rows.size());
+	}
+
+	@Test
+	public void testDiscardsRowsOfFailedSaves() {
+		Dog dog = new Dog();
+		FactJHelper.fabricate(Owner.class,
+				field("name", "Someone"),
+				field("pet", dog));
+		FactJHelper.fabricate(Owner.class, "strays",
+				field("pet", new Pet() {
+					@Override
+					public String getName() {
+						return "Without id";
+					}
+				}));
+		try {
+			persistence.saveAll(Arrays.asList(FactJ.build(Owner.class),
+					FactJ.build(Owner.class, "strays")));
+			fail("It should have failed to find the id of the pet");
+		} catch (IllegalArgumentException e) {
+		}
+		persistence.save(FactJ.build(Owner.class));
+
+		assertEquals("It should have prepared the statement again", 2, statements.size());
+		assertEquals("It should have sent only the new row", Arrays.asList(1), executions);
+	}
+
+	@Test
+	public void testCustomMapping() {
+		persistence.map(Person.class).table("people").column("email", "email_address")
+				.ignore("address");
+		Person p = new Person();
+		p.setEmail("diego@company.com");
+		persistence.save(p);
+
+		assertEquals("Built wrong statement",
+				"INSERT INTO people (id, name, email_address) VALUES (?, ?, ?)",
+				statements.get(0));
+		assertNull("Bound wrong value", rows.get(0).get(1));
+		assertEquals("Bound wrong value", "diego@company.com", rows.get(0).get(2));
+	}
+
+	@After
+	public void tearDown() {
+		FactJ.clear();
+	}
+
+	/**
+	 * @return A {@link Connection} that records what would be sent to the database.
+	 */
+	private Connection connection() {
+		return proxy(Connection.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if (method.getName().equals("prepareStatement")) {
+					statements.add((String) args[0]);
+					return statement();
+				}
+				return null;
+			}
+		});
+	}
+
+	private PreparedStatement statement() {
+		return proxy(PreparedStatement.class, new InvocationHandler() {
+			private List<Object> row = new ArrayList<Object>();
+			private int pending;
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				String name = method.getName();
+				if (name.startsWith("set"))
+					row.add(name.equals("setNull") ? null : args[1]);
+				else if (name.equals("addBatch")) {
+					rows.add(row);
+					row = new ArrayList<Object>();
+					pending++;
+				} else if (name.equals("executeBatch")) {
+					executions.add(pending);
+					int[] result = new int[pending];
+					pending = 0;
+					return result;
+				}
+				return null;
+			}
+		});
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+		return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+				handler);
+	}
+}